@@ -18,9 +18,11 @@
 package oidc.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import oidc.endpoints.ConcurrentPushedAuthorizationRequestRepository;
+import oidc.manage.OpenIDClientCache;
 import oidc.repository.AuthenticationRequestRepository;
-import oidc.repository.OpenIDClientRepository;
 import oidc.repository.UserRepository;
+import oidc.secure.JWTRequest;
 import oidc.secure.LoggingStrictHttpFirewall;
 import oidc.user.SamlProvisioningAuthenticationManager;
 import oidc.web.ConcurrentSavedRequestAwareAuthenticationSuccessHandler;
@@ -49,17 +51,23 @@ public class BeanConfig extends SamlServiceProviderServerBeanConfiguration {
     private AppConfig appConfiguration;
     private UserRepository userRepository;
     private AuthenticationRequestRepository authenticationRequestRepository;
-    private OpenIDClientRepository openIDClientRepository;
+    private OpenIDClientCache openIDClientCache;
+    private JWTRequest jwtRequest;
+    private ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository;
     private ObjectMapper objectMapper;
 
     public BeanConfig(AppConfig config,
                       UserRepository userRepository,
                       AuthenticationRequestRepository authenticationRequestRepository,
-                      OpenIDClientRepository openIDClientRepository,
+                      OpenIDClientCache openIDClientCache,
+                      JWTRequest jwtRequest,
+                      ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository,
                       ObjectMapper objectMapper) {
         this.appConfiguration = config;
         this.userRepository = userRepository;
-        this.openIDClientRepository = openIDClientRepository;
+        this.openIDClientCache = openIDClientCache;
+        this.jwtRequest = jwtRequest;
+        this.pushedAuthorizationRequestRepository = pushedAuthorizationRequestRepository;
         this.authenticationRequestRepository = authenticationRequestRepository;
         this.objectMapper = objectMapper;
     }
@@ -91,7 +99,7 @@ public class BeanConfig extends SamlServiceProviderServerBeanConfiguration {
         SamlProviderProvisioning<ServiceProviderService> provisioning = getSamlProvisioning();
         SamlRequestMatcher requestMatcher = new SamlRequestMatcher(provisioning, "authorize", false);
         return new ConfigurableSamlAuthenticationRequestFilter(provisioning, requestMatcher,
-                authenticationRequestRepository, openIDClientRepository);
+                authenticationRequestRepository, openIDClientCache, jwtRequest, pushedAuthorizationRequestRepository);
     }
 
     @Bean
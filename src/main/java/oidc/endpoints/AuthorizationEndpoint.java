@@ -9,22 +9,27 @@ import com.nimbusds.oauth2.sdk.ResponseMode;
 import com.nimbusds.oauth2.sdk.ResponseType;
 import com.nimbusds.oauth2.sdk.Scope;
 import com.nimbusds.oauth2.sdk.id.State;
+import com.nimbusds.oauth2.sdk.util.URLUtils;
 import com.nimbusds.openid.connect.sdk.AuthenticationRequest;
 import com.nimbusds.openid.connect.sdk.OIDCResponseTypeValue;
 import com.nimbusds.openid.connect.sdk.Prompt;
 import oidc.exceptions.InvalidGrantException;
+import oidc.exceptions.InvalidRequestURIException;
 import oidc.exceptions.InvalidScopeException;
 import oidc.exceptions.RedirectMismatchException;
 import oidc.exceptions.UnsupportedPromptValueException;
+import oidc.manage.OpenIDClientCache;
 import oidc.model.AccessToken;
 import oidc.model.AuthorizationCode;
+import oidc.model.ClientPolicy;
 import oidc.model.EncryptedTokenValue;
 import oidc.model.OpenIDClient;
 import oidc.model.ProvidedRedirectURI;
+import oidc.model.PushedAuthorizationRequest;
 import oidc.model.User;
 import oidc.repository.AccessTokenRepository;
+import oidc.repository.AuthenticationRequestRepository;
 import oidc.repository.AuthorizationCodeRepository;
-import oidc.repository.OpenIDClientRepository;
 import oidc.repository.RefreshTokenRepository;
 import oidc.repository.UserRepository;
 import oidc.secure.JWTRequest;
@@ -35,7 +40,7 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.CollectionUtils;
+import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -44,7 +49,6 @@ import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.view.RedirectView;
 import org.springframework.web.util.UriComponentsBuilder;
 
-import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
@@ -53,42 +57,49 @@ import java.net.URLDecoder;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Controller
 public class AuthorizationEndpoint implements OidcEndpoint {
 
     private static final Log LOG = LogFactory.getLog(AuthorizationEndpoint.class);
-    private static List<String> forFreeOpenIDScopes = Arrays.asList("profile", "email", "address", "phone");
 
     private TokenGenerator tokenGenerator;
     private AuthorizationCodeRepository authorizationCodeRepository;
     private AccessTokenRepository accessTokenRepository;
     private UserRepository userRepository;
     private RefreshTokenRepository refreshTokenRepository;
-    private OpenIDClientRepository openIDClientRepository;
+    private OpenIDClientCache openIDClientCache;
+    private JWTRequest jwtRequest;
+    private AuthenticationRequestRepository authenticationRequestRepository;
+    private ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository;
 
     @Autowired
     public AuthorizationEndpoint(AuthorizationCodeRepository authorizationCodeRepository,
                                  AccessTokenRepository accessTokenRepository,
                                  RefreshTokenRepository refreshTokenRepository,
                                  UserRepository userRepository,
-                                 OpenIDClientRepository openIDClientRepository,
-                                 TokenGenerator tokenGenerator) {
+                                 OpenIDClientCache openIDClientCache,
+                                 TokenGenerator tokenGenerator,
+                                 JWTRequest jwtRequest,
+                                 AuthenticationRequestRepository authenticationRequestRepository,
+                                 ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository) {
         this.authorizationCodeRepository = authorizationCodeRepository;
         this.accessTokenRepository = accessTokenRepository;
         this.refreshTokenRepository = refreshTokenRepository;
         this.userRepository = userRepository;
-        this.openIDClientRepository = openIDClientRepository;
+        this.openIDClientCache = openIDClientCache;
         this.tokenGenerator = tokenGenerator;
+        this.jwtRequest = jwtRequest;
+        this.authenticationRequestRepository = authenticationRequestRepository;
+        this.pushedAuthorizationRequestRepository = pushedAuthorizationRequestRepository;
     }
 
     @GetMapping("/oidc/authorize")
@@ -99,18 +110,26 @@ public class AuthorizationEndpoint implements OidcEndpoint {
         logout();
 
         OidcSamlAuthentication samlAuthentication = (OidcSamlAuthentication) authentication;
+        parameters = resolvePushedAuthorizationRequest(samlAuthentication, parameters);
         AuthorizationRequest authenticationRequest = AuthorizationRequest.parse(parameters);
 
         Scope scope = authenticationRequest.getScope();
         boolean isOpenIdClient = scope != null && isOpenIDRequest(scope.toStringList());
 
-        OpenIDClient client = openIDClientRepository.findByClientId(authenticationRequest.getClientID().getValue());
+        OpenIDClient client = openIDClientCache.findByClientId(authenticationRequest.getClientID().getValue());
 
         if (isOpenIdClient) {
-            AuthenticationRequest oidcAuthenticationRequest = AuthenticationRequest.parse(parameters);
-            if (oidcAuthenticationRequest.specifiesRequestObject()) {
-                oidcAuthenticationRequest = JWTRequest.parse(oidcAuthenticationRequest, client);
-                LOG.debug("/oidc/authorize with JWT 'request'");
+            Optional<AuthenticationRequest> verifiedRequest = verifiedAuthenticationRequest(samlAuthentication, parameters, client);
+            AuthenticationRequest oidcAuthenticationRequest;
+            if (verifiedRequest.isPresent()) {
+                oidcAuthenticationRequest = verifiedRequest.get();
+                LOG.debug("/oidc/authorize with JWT 'request' verified before authentication");
+            } else {
+                oidcAuthenticationRequest = AuthenticationRequest.parse(parameters);
+                if (oidcAuthenticationRequest.specifiesRequestObject()) {
+                    oidcAuthenticationRequest = jwtRequest.parse(oidcAuthenticationRequest, client);
+                    LOG.debug("/oidc/authorize with JWT 'request'");
+                }
             }
             //swap reference
             authenticationRequest = oidcAuthenticationRequest;
@@ -167,14 +186,76 @@ public class AuthorizationEndpoint implements OidcEndpoint {
         throw new IllegalArgumentException("Not yet implemented response_type: " + responseType.toString());
     }
 
+    /*
+     * The pushed authorization request is resolved - and removed - by the ConfigurableSamlAuthenticationRequestFilter
+     * before the user is sent to the IdP and saved with the SAML authentication request. Without the SAML round trip
+     * it is resolved here.
+     */
+    private MultiValueMap<String, String> resolvePushedAuthorizationRequest(OidcSamlAuthentication samlAuthentication,
+                                                                            MultiValueMap<String, String> parameters) {
+        String requestURI = parameters.getFirst("request_uri");
+        if (!PushedAuthorizationRequest.isPushedRequestURI(requestURI)) {
+            return parameters;
+        }
+        String clientId = parameters.getFirst("client_id");
+        String authenticationRequestID = samlAuthentication.getAuthenticationRequestID();
+        Optional<oidc.model.AuthenticationRequest> savedRequest = authenticationRequestID == null ? Optional.empty() :
+                authenticationRequestRepository.findById(authenticationRequestID)
+                        .filter(authenticationRequest -> authenticationRequest.isVerifiedRequestFor(requestURI));
+        Map<String, List<String>> pushedParameters = savedRequest.isPresent() ?
+                URLUtils.parseParameters(savedRequest.get().getVerifiedRequest()) :
+                PushedAuthorizationRequestEndpoint.resolve(pushedAuthorizationRequestRepository, requestURI, clientId);
+        if (clientId == null || !pushedParameters.getOrDefault("client_id", Collections.emptyList()).contains(clientId)) {
+            throw new InvalidRequestURIException(String.format("The request_uri %s is not pushed by client %s", requestURI, clientId));
+        }
+        LOG.debug("/oidc/authorize with pushed authorization request");
+        return new LinkedMultiValueMap<>(pushedParameters);
+    }
+
+    /*
+     * The request object is verified and merged in the ConfigurableSamlAuthenticationRequestFilter before the user is
+     * sent to the IdP, the result is saved with the SAML authentication request
+     */
+    private Optional<AuthenticationRequest> verifiedAuthenticationRequest(OidcSamlAuthentication samlAuthentication,
+                                                                          MultiValueMap<String, String> parameters,
+                                                                          OpenIDClient client) throws ParseException {
+        String requestObject = requestObject(parameters::getFirst);
+        String authenticationRequestID = samlAuthentication.getAuthenticationRequestID();
+        if (requestObject == null || authenticationRequestID == null) {
+            return Optional.empty();
+        }
+        Optional<oidc.model.AuthenticationRequest> savedRequest = authenticationRequestRepository.findById(authenticationRequestID)
+                .filter(authenticationRequest -> authenticationRequest.isVerifiedRequestFor(requestObject));
+        if (!savedRequest.isPresent()) {
+            return Optional.empty();
+        }
+        AuthenticationRequest verifiedRequest = AuthenticationRequest.parse(savedRequest.get().getVerifiedRequest());
+        if (!client.getClientId().equals(verifiedRequest.getClientID().getValue())) {
+            return Optional.empty();
+        }
+        return Optional.of(verifiedRequest);
+    }
+
+    /**
+     * The value of the request or request_uri parameter, or null if the request has no request object
+     */
+    public static String requestObject(Function<String, String> parameters) {
+        String request = parameters.apply("request");
+        if (StringUtils.hasText(request)) {
+            return request;
+        }
+        String requestURI = parameters.apply("request_uri");
+        return StringUtils.hasText(requestURI) ? requestURI : null;
+    }
+
     public static ResponseType validateGrantType(AuthorizationRequest authorizationRequest, OpenIDClient client) {
         ResponseType responseType = authorizationRequest.getResponseType();
-        List<String> grants = client.getGrants();
-        if ((responseType.impliesImplicitFlow() || responseType.impliesHybridFlow()) && !grants.contains(GrantType.IMPLICIT.getValue())) {
-            throw new InvalidGrantException(String.format("Grant types %s does not allow for implicit / hybrid flow", grants));
+        ClientPolicy policy = client.getPolicy();
+        if ((responseType.impliesImplicitFlow() || responseType.impliesHybridFlow()) && !policy.isGrantAllowed(GrantType.IMPLICIT)) {
+            throw new InvalidGrantException(String.format("Grant types %s does not allow for implicit / hybrid flow", client.getGrants()));
         }
-        if (responseType.impliesCodeFlow() && !grants.contains(GrantType.AUTHORIZATION_CODE.getValue())) {
-            throw new InvalidGrantException(String.format("Grant types %s does not allow for authorization code flow", grants));
+        if (responseType.impliesCodeFlow() && !policy.isGrantAllowed(GrantType.AUTHORIZATION_CODE)) {
+            throw new InvalidGrantException(String.format("Grant types %s does not allow for authorization code flow", client.getGrants()));
         }
         return responseType;
     }
@@ -182,11 +263,11 @@ public class AuthorizationEndpoint implements OidcEndpoint {
     private Map<String, Object> authorizationEndpointResponse(User user, OpenIDClient client, AuthorizationRequest authorizationRequest,
                                                               List<String> scopes, ResponseType responseType, State state) throws JOSEException, NoSuchProviderException, NoSuchAlgorithmException {
         Map<String, Object> result = new LinkedHashMap<>();
-        EncryptedTokenValue encryptedAccessToken = tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, client);
+        EncryptedTokenValue encryptedAccessToken = accessTokenWithEmbeddedUserInfo(user, client, scopes);
         String accessTokenValue = encryptedAccessToken.getValue();
         if (responseType.contains(ResponseType.Value.TOKEN.getValue()) || !isOpenIDRequest(authorizationRequest)) {
             getAccessTokenRepository().insert(new AccessToken(accessTokenValue, user.getSub(), client.getClientId(), scopes,
-                    encryptedAccessToken.getKeyId(), accessTokenValidity(client), false, null));
+                    encryptedAccessToken.getKeyId(), encryptedAccessToken.getClaimKeyId(), accessTokenValidity(client), false, null));
             result.put("access_token", accessTokenValue);
             result.put("token_type", "Bearer");
         }
@@ -212,14 +293,18 @@ public class AuthorizationEndpoint implements OidcEndpoint {
     private AuthorizationCode createAndSaveAuthorizationCode(AuthorizationRequest authenticationRequest, OpenIDClient client, User user) {
         AuthorizationCode authorizationCode = constructAuthorizationCode(authenticationRequest, client, user);
         authorizationCodeRepository.insert(authorizationCode);
+        //the user is needed until the code is redeemed, the TTL index removes it if that never happens
+        user.setExpiresIn(authorizationCode.getExpiresIn());
+        userRepository.save(user);
         return authorizationCode;
     }
 
 
     public static ProvidedRedirectURI validateRedirectionURI(AuthorizationRequest authenticationRequest, OpenIDClient client) throws UnsupportedEncodingException {
         URI redirectionURI = authenticationRequest.getRedirectionURI();
+        ClientPolicy policy = client.getPolicy();
         if (redirectionURI == null) {
-            return client.getRedirectUrls().stream().findFirst().map(s -> new ProvidedRedirectURI(s, false))
+            return Optional.ofNullable(policy.getDefaultRedirectUrl()).map(s -> new ProvidedRedirectURI(s, false))
                     .orElseThrow(() ->
                             new IllegalArgumentException(String.format("Client %s must have at least one redirectURI configured to use the Authorization flow",
                                     client.getClientId())));
@@ -227,11 +312,10 @@ public class AuthorizationEndpoint implements OidcEndpoint {
 
         String redirectURI = URLDecoder.decode(redirectionURI.toString(), "UTF-8");
 
-        List<String> redirectUrls = client.getRedirectUrls();
-        if (CollectionUtils.isEmpty(redirectUrls) || !redirectUrls.contains(redirectURI)) {
+        if (!policy.isRedirectUrlAllowed(redirectURI)) {
             throw new RedirectMismatchException(
                     String.format("Client %s with registered redirect URI's %s requested authorization with redirectURI %s",
-                            client.getClientId(), redirectUrls, redirectURI));
+                            client.getClientId(), client.getRedirectUrls(), redirectURI));
         }
         return new ProvidedRedirectURI(redirectURI, true);
     }
@@ -256,8 +340,7 @@ public class AuthorizationEndpoint implements OidcEndpoint {
 
     private static final String unsupportedPromptMessage = "Unsupported Prompt value";
 
-    public static String validatePrompt(HttpServletRequest request) {
-        String prompt = request.getParameter("prompt");
+    public static String validatePrompt(String prompt) {
         //We trigger an error is prompt is present and not equals 'login'
         if (StringUtils.hasText(prompt) && !prompt.equals("login")) {
             throw new UnsupportedPromptValueException(unsupportedPromptValue(prompt), unsupportedPromptMessage);
@@ -289,10 +372,8 @@ public class AuthorizationEndpoint implements OidcEndpoint {
     public static List<String> validateScopes(AuthorizationRequest authorizationRequest, OpenIDClient client) {
         Scope scope = authorizationRequest.getScope();
         List<String> requestedScopes = scope != null ? scope.toStringList() : Collections.emptyList();
-        List<String> scopes = new ArrayList<>(client.getScopes());
-        scopes.addAll(forFreeOpenIDScopes);
-        if (!scopes.containsAll(requestedScopes)) {
-            List<String> missingScopes = requestedScopes.stream().filter(s -> !scopes.contains(s)).collect(Collectors.toList());
+        List<String> missingScopes = client.getPolicy().getMissingScopes(requestedScopes);
+        if (!missingScopes.isEmpty()) {
             throw new InvalidScopeException(
                     String.format("Scope(s) %s are not allowed for %s. Allowed scopes: %s",
                             missingScopes, client.getClientId(), client.getScopes()));
@@ -305,6 +386,11 @@ public class AuthorizationEndpoint implements OidcEndpoint {
         return tokenGenerator;
     }
 
+    @Override
+    public OpenIDClientCache getOpenIDClientCache() {
+        return openIDClientCache;
+    }
+
     @Override
     public AccessTokenRepository getAccessTokenRepository() {
         return accessTokenRepository;
@@ -1,6 +1,7 @@
 package oidc.endpoints;
 
 import oidc.model.AuthorizationCode;
+import oidc.model.TokenHash;
 import oidc.model.Sequence;
 import oidc.model.SigningKey;
 import oidc.model.SymmetricKey;
@@ -29,7 +30,7 @@ public class ConcurrentAuthorizationCodeRepository {
     }
 
     public AuthorizationCode findByCodeNotAlreadyUsedAndMarkAsUsed(String code) {
-        Query query = new Query(Criteria.where("code").is(code).and("alreadyUsed").is(false));
+        Query query = new Query(Criteria.where("_id").is(TokenHash.sha256(code)).and("alreadyUsed").is(false));
         return mongoTemplate.findAndModify(query, Update.update("alreadyUsed", true), options, AuthorizationCode.class);
     }
 
@@ -0,0 +1,42 @@
+package oidc.endpoints;
+
+import oidc.model.PushedAuthorizationRequest;
+import oidc.model.TokenHash;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+
+/**
+ * Like the {@link ConcurrentAuthorizationCodeRepository} this is not in the repository package as the contract in the
+ * 'package-info.html' enforces not-null's
+ */
+@Repository
+public class ConcurrentPushedAuthorizationRequestRepository {
+
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    public ConcurrentPushedAuthorizationRequestRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void insert(PushedAuthorizationRequest pushedAuthorizationRequest) {
+        mongoTemplate.insert(pushedAuthorizationRequest);
+    }
+
+    /**
+     * A request_uri can only be used once and only by the client that pushed it. The TTL index removes expired
+     * documents with a delay, so expiration is checked in the query.
+     */
+    public PushedAuthorizationRequest findByRequestURIAndClientIdAndRemove(String requestURI, String clientId) {
+        Query query = new Query(Criteria.where("_id").is(TokenHash.sha256(requestURI))
+                .and("clientId").is(clientId)
+                .and("expiresIn").gt(new Date()));
+        return mongoTemplate.findAndRemove(query, PushedAuthorizationRequest.class);
+    }
+
+}
@@ -3,16 +3,20 @@ package oidc.endpoints;
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.TokenIntrospectionRequest;
 import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
-import com.nimbusds.oauth2.sdk.auth.PlainClientSecret;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.http.ServletUtils;
 import oidc.exceptions.UnauthorizedException;
+import oidc.manage.OpenIDClientCache;
 import oidc.model.AccessToken;
 import oidc.model.OpenIDClient;
+import oidc.model.TokenHash;
 import oidc.model.User;
-import oidc.repository.AccessTokenRepository;
-import oidc.repository.OpenIDClientRepository;
+import oidc.secure.AccessTokenValidator;
+import oidc.secure.ClientAssertionVerifier;
+import oidc.secure.ClientSecretVerifier;
 import oidc.secure.TokenGenerator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -21,60 +25,120 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Clock;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @RestController
 public class IntrospectEndpoint extends SecureEndpoint implements OrderedMap {
 
-    private AccessTokenRepository accessTokenRepository;
-    private OpenIDClientRepository openIDClientRepository;
+    private static final Log LOG = LogFactory.getLog(IntrospectEndpoint.class);
+
+    private AccessTokenValidator accessTokenValidator;
+    private OpenIDClientCache openIDClientCache;
     private String issuer;
     private TokenGenerator tokenGenerator;
+    private int maxBatchSize;
 
-    public IntrospectEndpoint(AccessTokenRepository accessTokenRepository,
-                              OpenIDClientRepository openIDClientRepository,
+    public IntrospectEndpoint(AccessTokenValidator accessTokenValidator,
+                              OpenIDClientCache openIDClientCache,
                               TokenGenerator tokenGenerator,
-                              @Value("${spring.security.saml2.service-provider.entity-id}") String issuer) {
-        this.accessTokenRepository = accessTokenRepository;
-        this.openIDClientRepository = openIDClientRepository;
+                              ClientSecretVerifier clientSecretVerifier,
+                              ClientAssertionVerifier clientAssertionVerifier,
+                              @Value("${spring.security.saml2.service-provider.entity-id}") String issuer,
+                              @Value("${introspect.max-batch-size}") int maxBatchSize) {
+        super(clientSecretVerifier, clientAssertionVerifier);
+        this.accessTokenValidator = accessTokenValidator;
+        this.openIDClientCache = openIDClientCache;
         this.tokenGenerator = tokenGenerator;
         this.issuer = issuer;
+        this.maxBatchSize = maxBatchSize;
     }
 
     @PostMapping(value = {"oidc/introspect"}, consumes = {MediaType.APPLICATION_FORM_URLENCODED_VALUE})
     public Map<String, Object> introspect(HttpServletRequest request) throws ParseException, IOException {
         HTTPRequest httpRequest = ServletUtils.createHTTPRequest(request);
         TokenIntrospectionRequest tokenIntrospectionRequest = TokenIntrospectionRequest.parse(httpRequest);
-        ClientAuthentication clientAuthentication = tokenIntrospectionRequest.getClientAuthentication();
+        OpenIDClient resourceServer = authenticatedResourceServer(tokenIntrospectionRequest.getClientAuthentication());
         String accessTokenValue = tokenIntrospectionRequest.getToken().getValue();
 
-        //https://tools.ietf.org/html/rfc7662 is vague about the authorization requirements, but we enforce basic auth
-        if (!(clientAuthentication instanceof PlainClientSecret)) {
+        AccessToken accessToken = accessTokenValidator.findByValue(accessTokenValue);
+        if (accessToken.isExpired(Clock.systemDefaultZone())) {
+            return Collections.singletonMap("active", false);
+        }
+        OpenIDClient openIDClient = openIDClientCache.findByClientId(accessToken.getClientId());
+        if (!openIDClient.getAllowedResourceServers().contains(resourceServer.getClientId())) {
+            throw new UnauthorizedException(
+                    String.format("RP %s is not allowed to use the API of resource server %s. Allowed resource servers are %s",
+                            accessToken.getClientId(), resourceServer.getClientId(), openIDClient.getAllowedResourceServers()));
+        }
+        return introspection(accessTokenValue, accessToken, resourceServer);
+    }
+
+    /*
+     * Introspects all the 'token' parameters with one client authentication and one query. The results are returned in
+     * the order of the tokens. Unknown, expired and tampered tokens and tokens of RP's that are not allowed to use the
+     * API of the resource server are not active.
+     */
+    @PostMapping(value = {"oidc/introspect/batch"}, consumes = {MediaType.APPLICATION_FORM_URLENCODED_VALUE})
+    public List<Map<String, Object>> introspectBatch(HttpServletRequest request) throws ParseException, IOException {
+        HTTPRequest httpRequest = ServletUtils.createHTTPRequest(request);
+        OpenIDClient resourceServer = authenticatedResourceServer(ClientAuthentication.parse(httpRequest));
+        List<String> accessTokenValues = httpRequest.getQueryParameters().getOrDefault("token", Collections.emptyList());
+        if (accessTokenValues.isEmpty() || accessTokenValues.size() > maxBatchSize) {
+            throw new IllegalArgumentException(
+                    String.format("Between 1 and %s tokens are required, got %s", maxBatchSize, accessTokenValues.size()));
+        }
+
+        List<byte[]> accessTokenIds = accessTokenValues.stream().map(TokenHash::sha256).collect(Collectors.toList());
+        Map<ByteBuffer, AccessToken> accessTokens = accessTokenValidator.findAllByValue(accessTokenValues);
+
+        //sequentially, as the lookups may block on a client or key reload and decoded users are mostly cached
+        return IntStream.range(0, accessTokenValues.size())
+                .mapToObj(i -> batchIntrospection(accessTokenValues.get(i),
+                        accessTokens.get(ByteBuffer.wrap(accessTokenIds.get(i))), resourceServer))
+                .collect(Collectors.toList());
+    }
+
+    private OpenIDClient authenticatedResourceServer(ClientAuthentication clientAuthentication) {
+        //https://tools.ietf.org/html/rfc7662 is vague about the authorization requirements, but we enforce basic auth or private_key_jwt
+        if (!isSupported(clientAuthentication)) {
             throw new BadCredentialsException("Invalid user / secret");
         }
-        OpenIDClient resourceServer = openIDClientRepository.findByClientId(clientAuthentication.getClientID().getValue());
+        OpenIDClient resourceServer = openIDClientCache.findByClientId(clientAuthentication.getClientID().getValue());
 
-        if (!secretsMatch((PlainClientSecret) clientAuthentication, resourceServer)) {
+        if (!clientAuthenticated(clientAuthentication, resourceServer)) {
             throw new BadCredentialsException("Invalid user / secret");
         }
         if (!resourceServer.isResourceServer()) {
             throw new BadCredentialsException("Requires ResourceServer");
         }
+        return resourceServer;
+    }
 
-        AccessToken accessToken = accessTokenRepository.findByValue(accessTokenValue);
-        if (accessToken.isExpired(Clock.systemDefaultZone())) {
+    private Map<String, Object> batchIntrospection(String accessTokenValue, AccessToken accessToken, OpenIDClient resourceServer) {
+        if (accessToken == null || accessToken.isExpired(Clock.systemDefaultZone())) {
             return Collections.singletonMap("active", false);
         }
-        OpenIDClient openIDClient = openIDClientRepository.findByClientId(accessToken.getClientId());
-        if (!openIDClient.getAllowedResourceServers().contains(resourceServer.getClientId())) {
-            throw new UnauthorizedException(
-                    String.format("RP %s is not allowed to use the API of resource server %s. Allowed resource servers are %s",
-                            accessToken.getClientId(), resourceServer.getClientId(), openIDClient.getAllowedResourceServers()));
+        try {
+            OpenIDClient openIDClient = openIDClientCache.findByClientId(accessToken.getClientId());
+            if (!openIDClient.getAllowedResourceServers().contains(resourceServer.getClientId())) {
+                return Collections.singletonMap("active", false);
+            }
+            return introspection(accessTokenValue, accessToken, resourceServer);
+        } catch (RuntimeException e) {
+            LOG.warn(String.format("Exception introspecting access token of RP %s for resource server %s",
+                    accessToken.getClientId(), resourceServer.getClientId()), e);
+            return Collections.singletonMap("active", false);
         }
+    }
 
+    private Map<String, Object> introspection(String accessTokenValue, AccessToken accessToken, OpenIDClient resourceServer) {
         Map<String, Object> result = new HashMap<>();
 
         if (!accessToken.isClientCredentials()) {
@@ -4,7 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.crypto.tink.CleartextKeysetHandle;
 import com.google.crypto.tink.JsonKeysetWriter;
 import com.google.crypto.tink.KeysetHandle;
-import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.JWKSet;
 import oidc.secure.TokenGenerator;
 import org.springframework.beans.factory.annotation.Value;
@@ -19,6 +19,7 @@ import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @RestController
 public class JwkKeysEndpoint implements MapTypeReference {
@@ -32,17 +33,20 @@ public class JwkKeysEndpoint implements MapTypeReference {
                            @Value("${openid_configuration_path}") Resource configurationPath) throws IOException {
         this.tokenGenerator = tokenGenerator;
         this.wellKnownConfiguration = objectMapper.readValue(configurationPath.getInputStream(), mapTypeReference);
+        this.wellKnownConfiguration.put("id_token_signing_alg_values_supported", tokenGenerator.getSigningAlgorithms().stream()
+                .map(JWSAlgorithm::getName)
+                .collect(Collectors.toList()));
         this.objectMapper = objectMapper;
     }
 
     @GetMapping(value = {"/oidc/certs"}, produces = MediaType.APPLICATION_JSON_VALUE)
     public String publishClientJwk() {
-        return new JWKSet(tokenGenerator.getAllPublicKeys()).toJSONObject().toString();
+        return new JWKSet(tokenGenerator.getAllPublicKeys()).toString();
     }
 
     @GetMapping("oidc/generate-secret-key-set")
     public Map<String, Object> generateSymmetricSecretKey() throws GeneralSecurityException, IOException {
-        KeysetHandle keysetHandle = KeysetHandle.generateNew(AeadKeyTemplates.AES256_CTR_HMAC_SHA256);
+        KeysetHandle keysetHandle = KeysetHandle.generateNew(tokenGenerator.getAeadKeyTemplate());
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
         CleartextKeysetHandle.write(keysetHandle, JsonKeysetWriter.withOutputStream(outputStream));
@@ -9,6 +9,7 @@ import com.nimbusds.oauth2.sdk.pkce.CodeChallengeMethod;
 import com.nimbusds.openid.connect.sdk.AuthenticationRequest;
 import com.nimbusds.openid.connect.sdk.ClaimsRequest;
 import com.nimbusds.openid.connect.sdk.Nonce;
+import oidc.manage.OpenIDClientCache;
 import oidc.model.AccessToken;
 import oidc.model.AuthorizationCode;
 import oidc.model.EncryptedTokenValue;
@@ -40,21 +41,23 @@ public interface OidcEndpoint {
                                                       List<String> scopes, List<String> idTokenClaims,
                                                       boolean clientCredentials, String nonce,
                                                       Optional<Long> authorizationTime,
-                                                      Optional<String> authorizationCodeId) throws JOSEException, NoSuchProviderException, NoSuchAlgorithmException {
+                                                      Optional<byte[]> authorizationCodeId) throws JOSEException, NoSuchProviderException, NoSuchAlgorithmException {
         Map<String, Object> map = new LinkedHashMap<>();
         TokenGenerator tokenGenerator = getTokenGenerator();
-        EncryptedTokenValue encryptedAccessToken = user.map(u -> tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(u, client)).orElse(tokenGenerator.generateAccessToken());
+        EncryptedTokenValue encryptedAccessToken = user.map(u -> accessTokenWithEmbeddedUserInfo(u, client, scopes)).orElse(tokenGenerator.generateAccessToken());
         String accessTokenValue = encryptedAccessToken.getValue();
         String sub = user.map(User::getSub).orElse(client.getClientId());
 
         getAccessTokenRepository().insert(new AccessToken(accessTokenValue, sub, client.getClientId(), scopes,
-                encryptedAccessToken.getKeyId(), accessTokenValidity(client), !user.isPresent(), authorizationCodeId.orElse(null)));
+                encryptedAccessToken.getKeyId(), encryptedAccessToken.getClaimKeyId(), accessTokenValidity(client), !user.isPresent(),
+                authorizationCodeId.orElse(null)));
         map.put("access_token", accessTokenValue);
         map.put("token_type", "Bearer");
-        if (client.getGrants().contains(GrantType.REFRESH_TOKEN.getValue())) {
+        if (client.getPolicy().isGrantAllowed(GrantType.REFRESH_TOKEN)) {
             String refreshTokenValue = tokenGenerator.generateRefreshToken();
             getRefreshTokenRepository().insert(new RefreshToken(refreshTokenValue, sub, client.getClientId(), scopes,
-                    refreshTokenValidity(client), accessTokenValue, clientCredentials));
+                    refreshTokenValidity(client), accessTokenValue, encryptedAccessToken.getClaims(),
+                    encryptedAccessToken.getClaimKeyId(), clientCredentials));
             map.put("refresh_token", refreshTokenValue);
         }
         map.put("expires_in", client.getAccessTokenValidity());
@@ -64,6 +67,16 @@ public interface OidcEndpoint {
         return map;
     }
 
+    default EncryptedTokenValue accessTokenWithEmbeddedUserInfo(User user, OpenIDClient client, List<String> scopes) {
+        List<String> allowedResourceServers = client.getAllowedResourceServers();
+        //resource servers with an encryption key can read the user claims from the access token without introspection
+        List<OpenIDClient> resourceServers = allowedResourceServers == null ? Collections.emptyList() :
+                getOpenIDClientCache().findAllByClientIds(allowedResourceServers).stream()
+                        .filter(OpenIDClient::accessTokenEncryptionKeySpecified)
+                        .collect(Collectors.toList());
+        return getTokenGenerator().generateAccessTokenWithEmbeddedUserInfo(user, client, scopes, resourceServers);
+    }
+
     default AuthorizationCode constructAuthorizationCode(AuthorizationRequest authorizationRequest, OpenIDClient client, User user) {
         URI redirectionURI = authorizationRequest.getRedirectionURI();
         Scope scope = authorizationRequest.getScope();
@@ -137,6 +150,8 @@ public interface OidcEndpoint {
 
     TokenGenerator getTokenGenerator();
 
+    OpenIDClientCache getOpenIDClientCache();
+
     AccessTokenRepository getAccessTokenRepository();
 
     RefreshTokenRepository getRefreshTokenRepository();
@@ -0,0 +1,154 @@
+package oidc.endpoints;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.oauth2.sdk.AuthorizationRequest;
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.ServletUtils;
+import com.nimbusds.oauth2.sdk.util.URLUtils;
+import com.nimbusds.openid.connect.sdk.AuthenticationRequest;
+import oidc.exceptions.ClientAuthenticationNotSupported;
+import oidc.exceptions.InvalidRequestURIException;
+import oidc.manage.OpenIDClientCache;
+import oidc.model.OpenIDClient;
+import oidc.model.PushedAuthorizationRequest;
+import oidc.secure.ClientAssertionVerifier;
+import oidc.secure.ClientSecretVerifier;
+import oidc.secure.JWTRequest;
+import oidc.secure.TokenGenerator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pushed Authorization Requests (RFC 9126). The authorization request is validated - and its request object verified -
+ * once and stored, the client starts the authorization with only the client_id and the returned request_uri.
+ */
+@RestController
+public class PushedAuthorizationRequestEndpoint extends SecureEndpoint {
+
+    private static final Log LOG = LogFactory.getLog(PushedAuthorizationRequestEndpoint.class);
+
+    private static final List<String> CLIENT_AUTHENTICATION_PARAMETERS =
+            Arrays.asList("client_secret", "client_assertion", "client_assertion_type");
+
+    private OpenIDClientCache openIDClientCache;
+    private ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository;
+    private JWTRequest jwtRequest;
+    private TokenGenerator tokenGenerator;
+    private int expiresInSeconds;
+
+    public PushedAuthorizationRequestEndpoint(OpenIDClientCache openIDClientCache,
+                                              ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository,
+                                              JWTRequest jwtRequest,
+                                              TokenGenerator tokenGenerator,
+                                              ClientSecretVerifier clientSecretVerifier,
+                                              ClientAssertionVerifier clientAssertionVerifier,
+                                              @Value("${pushed-authorization-requests.expires-in-seconds}") int expiresInSeconds) {
+        super(clientSecretVerifier, clientAssertionVerifier);
+        this.openIDClientCache = openIDClientCache;
+        this.pushedAuthorizationRequestRepository = pushedAuthorizationRequestRepository;
+        this.jwtRequest = jwtRequest;
+        this.tokenGenerator = tokenGenerator;
+        this.expiresInSeconds = expiresInSeconds;
+    }
+
+    @PostMapping(value = "oidc/par", consumes = {MediaType.APPLICATION_FORM_URLENCODED_VALUE})
+    public ResponseEntity<Map<String, Object>> pushAuthorizationRequest(HttpServletRequest request) throws ParseException, IOException, CertificateException, JOSEException, BadJOSEException, java.text.ParseException, URISyntaxException {
+        HTTPRequest httpRequest = ServletUtils.createHTTPRequest(request);
+        ClientAuthentication clientAuthentication = ClientAuthentication.parse(httpRequest);
+        if (clientAuthentication != null && !isSupported(clientAuthentication)) {
+            throw new ClientAuthenticationNotSupported(
+                    String.format("Unsupported '%s' client authentication in PAR endpoint", clientAuthentication.getClass()));
+        }
+        Map<String, List<String>> parameters = new LinkedHashMap<>(httpRequest.getQueryParameters());
+        CLIENT_AUTHENTICATION_PARAMETERS.forEach(parameters::remove);
+        if (parameters.containsKey("request_uri")) {
+            throw new InvalidRequestURIException("The request_uri parameter is not allowed in a pushed authorization request");
+        }
+        AuthorizationRequest authorizationRequest = AuthorizationRequest.parse(parameters);
+        String clientId = authorizationRequest.getClientID().getValue();
+        if (clientAuthentication != null && !clientAuthentication.getClientID().getValue().equals(clientId)) {
+            throw new BadCredentialsException("The client_id does not match the authenticated client");
+        }
+        OpenIDClient client = openIDClientCache.findByClientId(clientId);
+        if (clientAuthentication == null && !client.isPublicClient()) {
+            throw new BadCredentialsException("Non-public client requires authentication");
+        }
+        if (clientAuthentication != null && !clientAuthenticated(clientAuthentication, client)) {
+            throw new BadCredentialsException("Invalid user / secret");
+        }
+
+        Scope scope = authorizationRequest.getScope();
+        if (scope != null && scope.contains("openid")) {
+            AuthenticationRequest authenticationRequest = AuthenticationRequest.parse(parameters);
+            if (authenticationRequest.specifiesRequestObject()) {
+                authenticationRequest = jwtRequest.parse(authenticationRequest, client);
+                if (!clientId.equals(authenticationRequest.getClientID().getValue())) {
+                    throw new BadCredentialsException("The client_id of the request object does not match the client");
+                }
+            }
+            AuthorizationEndpoint.validatePrompt(authenticationRequest.getPrompt());
+            authorizationRequest = authenticationRequest;
+        }
+        AuthorizationEndpoint.validateRedirectionURI(authorizationRequest, client);
+        AuthorizationEndpoint.validateScopes(authorizationRequest, client);
+        AuthorizationEndpoint.validateGrantType(authorizationRequest, client);
+
+        String requestURI = PushedAuthorizationRequest.REQUEST_URI_PREFIX + tokenGenerator.generateRequestURIReference();
+        Date expiresIn = new Date(System.currentTimeMillis() + expiresInSeconds * 1000L);
+        pushedAuthorizationRequestRepository.insert(
+                new PushedAuthorizationRequest(requestURI, clientId, serialize(authorizationRequest), expiresIn));
+        LOG.debug(String.format("Pushed authorization request for client %s", clientId));
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("request_uri", requestURI);
+        body.put("expires_in", expiresInSeconds);
+        return new ResponseEntity<>(body, HttpStatus.CREATED);
+    }
+
+    /**
+     * The validated request without the request object, which is verified and merged already
+     */
+    private static String serialize(AuthorizationRequest authorizationRequest) {
+        Map<String, List<String>> parameters = authorizationRequest.toParameters();
+        parameters.remove("request");
+        parameters.remove("request_uri");
+        return URLUtils.serializeParameters(parameters);
+    }
+
+    /**
+     * The parameters of the pushed authorization request referenced by the request_uri, which can only be used once
+     * and only by the client that pushed it
+     */
+    public static Map<String, List<String>> resolve(ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository,
+                                                    String requestURI, String clientId) {
+        PushedAuthorizationRequest pushedAuthorizationRequest =
+                pushedAuthorizationRequestRepository.findByRequestURIAndClientIdAndRemove(requestURI, clientId);
+        if (pushedAuthorizationRequest == null) {
+            throw new InvalidRequestURIException(String.format("Unknown, expired or already used request_uri %s for client %s",
+                    requestURI, clientId));
+        }
+        return URLUtils.parseParameters(pushedAuthorizationRequest.getRequest());
+    }
+}
@@ -1,16 +1,36 @@
 package oidc.endpoints;
 
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
 import com.nimbusds.oauth2.sdk.auth.PlainClientSecret;
+import com.nimbusds.oauth2.sdk.auth.PrivateKeyJWT;
 import oidc.model.OpenIDClient;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import oidc.secure.ClientAssertionVerifier;
+import oidc.secure.ClientSecretVerifier;
 
 public class SecureEndpoint {
 
-    private BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    private ClientSecretVerifier clientSecretVerifier;
+    private ClientAssertionVerifier clientAssertionVerifier;
+
+    SecureEndpoint(ClientSecretVerifier clientSecretVerifier, ClientAssertionVerifier clientAssertionVerifier) {
+        this.clientSecretVerifier = clientSecretVerifier;
+        this.clientAssertionVerifier = clientAssertionVerifier;
+    }
+
+    boolean isSupported(ClientAuthentication clientAuthentication) {
+        return clientAuthentication instanceof PlainClientSecret || clientAuthentication instanceof PrivateKeyJWT;
+    }
+
+    boolean clientAuthenticated(ClientAuthentication clientAuthentication, OpenIDClient openIDClient) {
+        if (clientAuthentication instanceof PrivateKeyJWT) {
+            return clientAssertionVerifier.matches(((PrivateKeyJWT) clientAuthentication).getClientAssertion(), openIDClient);
+        }
+        return clientAuthentication instanceof PlainClientSecret && secretsMatch((PlainClientSecret) clientAuthentication, openIDClient);
+    }
 
     //See https://www.pivotaltracker.com/story/show/165565558
     boolean secretsMatch(PlainClientSecret clientSecret, OpenIDClient openIDClient) {
-        return passwordEncoder.matches(clientSecret.getClientSecret().getValue(), openIDClient.getSecret());
+        return clientSecretVerifier.matches(clientSecret.getClientSecret().getValue(), openIDClient);
     }
 
 }
@@ -8,7 +8,6 @@ import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.RefreshTokenGrant;
 import com.nimbusds.oauth2.sdk.TokenRequest;
 import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
-import com.nimbusds.oauth2.sdk.auth.PlainClientSecret;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.http.ServletUtils;
 import com.nimbusds.oauth2.sdk.pkce.CodeChallenge;
@@ -19,6 +18,7 @@ import oidc.exceptions.CodeVerifierMissingException;
 import oidc.exceptions.InvalidGrantException;
 import oidc.exceptions.RedirectMismatchException;
 import oidc.exceptions.UnauthorizedException;
+import oidc.manage.OpenIDClientCache;
 import oidc.model.AccessToken;
 import oidc.model.AuthorizationCode;
 import oidc.model.OpenIDClient;
@@ -26,9 +26,11 @@ import oidc.model.RefreshToken;
 import oidc.model.User;
 import oidc.repository.AccessTokenRepository;
 import oidc.repository.AuthorizationCodeRepository;
-import oidc.repository.OpenIDClientRepository;
 import oidc.repository.RefreshTokenRepository;
 import oidc.repository.UserRepository;
+import oidc.secure.AccessTokenValidator;
+import oidc.secure.ClientAssertionVerifier;
+import oidc.secure.ClientSecretVerifier;
 import oidc.secure.TokenGenerator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -62,24 +64,29 @@ public class TokenEndpoint extends SecureEndpoint implements OidcEndpoint {
     private AccessTokenRepository accessTokenRepository;
     private RefreshTokenRepository refreshTokenRepository;
     private UserRepository userRepository;
-    private OpenIDClientRepository openIDClientRepository;
+    private OpenIDClientCache openIDClientCache;
     private TokenGenerator tokenGenerator;
+    private AccessTokenValidator accessTokenValidator;
 
-
-    public TokenEndpoint(OpenIDClientRepository openIDClientRepository,
+    public TokenEndpoint(OpenIDClientCache openIDClientCache,
                          AuthorizationCodeRepository authorizationCodeRepository,
                          ConcurrentAuthorizationCodeRepository concurrentAuthorizationCodeRepository,
                          AccessTokenRepository accessTokenRepository,
                          RefreshTokenRepository refreshTokenRepository,
                          UserRepository userRepository,
-                         TokenGenerator tokenGenerator) {
-        this.openIDClientRepository = openIDClientRepository;
+                         TokenGenerator tokenGenerator,
+                         AccessTokenValidator accessTokenValidator,
+                         ClientSecretVerifier clientSecretVerifier,
+                         ClientAssertionVerifier clientAssertionVerifier) {
+        super(clientSecretVerifier, clientAssertionVerifier);
+        this.openIDClientCache = openIDClientCache;
         this.authorizationCodeRepository = authorizationCodeRepository;
         this.concurrentAuthorizationCodeRepository = concurrentAuthorizationCodeRepository;
         this.accessTokenRepository = accessTokenRepository;
         this.refreshTokenRepository = refreshTokenRepository;
         this.userRepository = userRepository;
         this.tokenGenerator = tokenGenerator;
+        this.accessTokenValidator = accessTokenValidator;
     }
 
     @PostMapping(value = "oidc/token", consumes = {MediaType.APPLICATION_FORM_URLENCODED_VALUE})
@@ -88,8 +95,7 @@ public class TokenEndpoint extends SecureEndpoint implements OidcEndpoint {
         TokenRequest tokenRequest = TokenRequest.parse(httpRequest);
 
         ClientAuthentication clientAuthentication = tokenRequest.getClientAuthentication();
-        if (clientAuthentication != null &&
-                !(clientAuthentication instanceof PlainClientSecret)) {
+        if (clientAuthentication != null && !isSupported(clientAuthentication)) {
             throw new ClientAuthenticationNotSupported(
                     String.format("Unsupported '%s' findByClientId authentication in token endpoint", clientAuthentication.getClass()));
         }
@@ -99,17 +105,16 @@ public class TokenEndpoint extends SecureEndpoint implements OidcEndpoint {
             throw new CodeVerifierMissingException("code_verifier required without client authentication");
         }
         String clientId = clientAuthentication != null ? clientAuthentication.getClientID().getValue() : tokenRequest.getClientID().getValue();
-        OpenIDClient client = openIDClientRepository.findByClientId(clientId);
+        OpenIDClient client = openIDClientCache.findByClientId(clientId);
 
         if (clientAuthentication == null && !client.isPublicClient()) {
             throw new BadCredentialsException("Non-public client requires authentication");
         }
 
-        if (clientAuthentication != null &&
-                !secretsMatch((PlainClientSecret) clientAuthentication, client)) {
+        if (clientAuthentication != null && !clientAuthenticated(clientAuthentication, client)) {
             throw new BadCredentialsException("Invalid user / secret");
         }
-        if (!client.getGrants().contains(authorizationGrant.getType().getValue())) {
+        if (!client.getPolicy().isGrantAllowed(authorizationGrant.getType())) {
             throw new InvalidGrantException("Invalid grant: " + authorizationGrant.getType().getValue());
         }
 
@@ -138,7 +143,7 @@ public class TokenEndpoint extends SecureEndpoint implements OidcEndpoint {
              * and if we find something then we know there was a re-use issue.
              */
             AuthorizationCode byCode = authorizationCodeRepository.findByCode(code);
-            accessTokenRepository.deleteByAuthorizationCodeId(byCode.getId());
+            accessTokenValidator.revoke(accessTokenRepository.deleteByAuthorizationCodeId(byCode.getId()));
             throw new UnauthorizedException("Authorization code already used");
         }
 
@@ -187,7 +192,7 @@ public class TokenEndpoint extends SecureEndpoint implements OidcEndpoint {
 
     private ResponseEntity handleRefreshCodeGrant(RefreshTokenGrant refreshTokenGrant, OpenIDClient client) throws JOSEException, NoSuchProviderException, NoSuchAlgorithmException {
         String refreshTokenValue = refreshTokenGrant.getRefreshToken().getValue();
-        RefreshToken refreshToken = refreshTokenRepository.findByInnerValue(refreshTokenValue);
+        RefreshToken refreshToken = refreshTokenRepository.findByValue(refreshTokenValue);
         if (!refreshToken.getClientId().equals(client.getClientId())) {
             throw new BadCredentialsException("Client is not authorized for the refresh token");
         }
@@ -196,12 +201,15 @@ public class TokenEndpoint extends SecureEndpoint implements OidcEndpoint {
         }
         //New tokens will be issued
         refreshTokenRepository.delete(refreshToken);
-        //It is possible that the access token is already removed by cron cleanup actions
-        Optional<AccessToken> accessToken = accessTokenRepository.findOptionalAccessTokenByValue(refreshToken.getAccessTokenValue());
-        accessToken.ifPresent(token -> accessTokenRepository.delete(token));
+        //It is possible that the access token is already removed by the expiresIn TTL index
+        Optional<AccessToken> accessToken = accessTokenRepository.findById(refreshToken.getAccessTokenId());
+        accessToken.ifPresent(token -> {
+            accessTokenRepository.delete(token);
+            accessTokenValidator.revoke(Collections.singletonList(token));
+        });
 
         Optional<User> optionalUser = refreshToken.isClientCredentials() ? Optional.empty() :
-                Optional.of(tokenGenerator.decryptAccessTokenWithEmbeddedUserInfo(refreshToken.getAccessTokenValue()));
+                Optional.of(tokenGenerator.decryptUserInfo(refreshToken.getClaims(), refreshToken.getClaimKeyId()));
         Map<String, Object> body = tokenEndpointResponse(optionalUser, client, refreshToken.getScopes(),
                 Collections.emptyList(), false, null, optionalUser.map(User::getUpdatedAt), Optional.empty());
         return new ResponseEntity<>(body, getResponseHeaders(), HttpStatus.OK);
@@ -227,6 +235,11 @@ public class TokenEndpoint extends SecureEndpoint implements OidcEndpoint {
         return tokenGenerator;
     }
 
+    @Override
+    public OpenIDClientCache getOpenIDClientCache() {
+        return openIDClientCache;
+    }
+
     @Override
     public AccessTokenRepository getAccessTokenRepository() {
         return accessTokenRepository;
@@ -8,7 +8,7 @@ import oidc.exceptions.InvalidGrantException;
 import oidc.exceptions.UnauthorizedException;
 import oidc.model.AccessToken;
 import oidc.model.User;
-import oidc.repository.AccessTokenRepository;
+import oidc.secure.AccessTokenValidator;
 import oidc.secure.TokenGenerator;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,16 +18,17 @@ import org.springframework.web.bind.annotation.RestController;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.time.Clock;
+import java.util.HashMap;
 import java.util.Map;
 
 @RestController
 public class UserInfoEndpoint implements OrderedMap {
 
-    private AccessTokenRepository accessTokenRepository;
+    private AccessTokenValidator accessTokenValidator;
     private TokenGenerator tokenGenerator;
 
-    public UserInfoEndpoint(AccessTokenRepository accessTokenRepository, TokenGenerator tokenGenerator) {
-        this.accessTokenRepository = accessTokenRepository;
+    public UserInfoEndpoint(AccessTokenValidator accessTokenValidator, TokenGenerator tokenGenerator) {
+        this.accessTokenValidator = accessTokenValidator;
         this.tokenGenerator = tokenGenerator;
     }
 
@@ -46,7 +47,7 @@ public class UserInfoEndpoint implements OrderedMap {
         UserInfoRequest userInfoRequest = UserInfoRequest.parse(httpRequest);
 
         String accessTokenValue = userInfoRequest.getAccessToken().getValue();
-        AccessToken accessToken = accessTokenRepository.findByValue(accessTokenValue);
+        AccessToken accessToken = accessTokenValidator.findByValue(accessTokenValue);
 
         if (accessToken.isExpired(Clock.systemDefaultZone())) {
             throw new UnauthorizedException("Access token expired");
@@ -55,7 +56,7 @@ public class UserInfoEndpoint implements OrderedMap {
             throw new InvalidGrantException("UserEndpoint not allowed for Client Credentials");
         }
         User user = tokenGenerator.decryptAccessTokenWithEmbeddedUserInfo(accessTokenValue);
-        Map<String, Object> attributes = user.getAttributes();
+        Map<String, Object> attributes = new HashMap<>(user.getAttributes());
         attributes.put("updated_at", user.getUpdatedAt());
         attributes.put("sub", user.getSub());
         return sortMap(attributes);
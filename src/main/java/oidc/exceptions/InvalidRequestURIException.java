@@ -0,0 +1,17 @@
+package oidc.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class InvalidRequestURIException extends BaseException {
+
+    public InvalidRequestURIException(String message) {
+        super(message);
+    }
+
+    @Override
+    public String getErrorCode() {
+        return "invalid_request_uri";
+    }
+}
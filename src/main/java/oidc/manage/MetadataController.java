@@ -1,56 +1,179 @@
 package oidc.manage;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import oidc.endpoints.MapTypeReference;
 import oidc.model.OpenIDClient;
+import oidc.repository.SequenceRepository;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 @RestController
-public class MetadataController {
+public class MetadataController implements MapTypeReference {
 
     private static final Log LOG = LogFactory.getLog(MetadataController.class);
 
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private SequenceRepository sequenceRepository;
+
+    @Autowired
+    private OpenIDClientCache openIDClientCache;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${manage.batch-size}")
+    private int batchSize;
+
+    /*
+     * The body is a JSON array of connections that is parsed one connection at a time. Only the changed clients are
+     * written in bulk operations of at most batch-size clients, so memory usage does not grow with the size of the push.
+     */
     @PostMapping("manage/connections")
     @Transactional
     public ResponseEntity<Void> connections(Authentication authentication,
-                                            @RequestBody List<Map<String, Object>> connections,
-                                            @RequestParam(name = "forceError", defaultValue = "false") boolean forceError) {
+                                            HttpServletRequest request,
+                                            @RequestParam(name = "forceError", defaultValue = "false") boolean forceError) throws IOException {
         String name = authentication.getName();
         LOG.info("Starting to provision OIDC clients from push: " + name);
 
-        List<OpenIDClient> newClients = connections.stream().map(OpenIDClient::new).collect(Collectors.toList());
+        //only the clientId, _id and contentHash of the current clients are needed to compute the changes
+        Query currentClientsQuery = new Query();
+        currentClientsQuery.fields().include("clientId").include("contentHash");
+        Map<String, OpenIDClient> currentClients = mongoTemplate.find(currentClientsQuery, OpenIDClient.class).stream()
+                .collect(Collectors.toMap(OpenIDClient::getClientId, client -> client, (first, second) -> first));
+
+        Set<String> pushedClientIds = new HashSet<>();
+        ClientBatch batch = new ClientBatch();
+        try (JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Expected an array of connections");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                OpenIDClient client = new OpenIDClient(objectMapper.<Map<String, Object>>readValue(parser, mapTypeReference));
+                if (!pushedClientIds.add(client.getClientId())) {
+                    continue;
+                }
+                OpenIDClient currentClient = currentClients.get(client.getClientId());
+                if (currentClient == null) {
+                    batch.insert(client);
+                } else if (!client.getContentHash().equals(currentClient.getContentHash())) {
+                    client.setId(currentClient.getId());
+                    batch.replace(client);
+                }
+            }
+        }
+        batch.flush();
+
+        List<String> deletes = currentClients.values().stream()
+                .filter(client -> !pushedClientIds.contains(client.getClientId()))
+                .map(OpenIDClient::getId)
+                .collect(Collectors.toList());
+        for (int i = 0; i < deletes.size(); i += batchSize) {
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(deletes.subList(i, Math.min(i + batchSize, deletes.size())))),
+                    OpenIDClient.class);
+        }
 
-        mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, OpenIDClient.class)
-                .remove(new Query())
-                .insert(newClients)
-                .execute();
+        boolean changed = batch.inserted > 0 || batch.replaced > 0 || !deletes.isEmpty();
+        if (changed) {
+            //other nodes reload the clients when they notice the new version
+            sequenceRepository.updateOpenIDClientVersion(UUID.randomUUID().toString());
+        }
 
         if (forceError) {
             throw new IllegalArgumentException("Forced error");
         }
 
-        LOG.info("Provisioned " + newClients.size() + " OIDC clients from push: " + name);
+        if (changed) {
+            afterCommit(openIDClientCache::refresh);
+        }
+
+        LOG.info(String.format("Provisioned %s OIDC clients from push: %s. Inserted %s, updated %s and deleted %s clients",
+                pushedClientIds.size(), name, batch.inserted, batch.replaced, deletes.size()));
 
         return ResponseEntity.status(HttpStatus.CREATED).build();
     }
 
+    private void afterCommit(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            runnable.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                runnable.run();
+            }
+        });
+    }
+
+    private class ClientBatch {
+
+        private final List<OpenIDClient> inserts = new ArrayList<>();
+        private final List<OpenIDClient> replacements = new ArrayList<>();
+        private int inserted;
+        private int replaced;
+
+        private void insert(OpenIDClient client) {
+            inserts.add(client);
+            flushIfFull();
+        }
+
+        private void replace(OpenIDClient client) {
+            replacements.add(client);
+            flushIfFull();
+        }
+
+        private void flushIfFull() {
+            if (inserts.size() + replacements.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (inserts.isEmpty() && replacements.isEmpty()) {
+                return;
+            }
+            BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, OpenIDClient.class);
+            replacements.forEach(client -> bulkOperations.replaceOne(Query.query(Criteria.where("_id").is(client.getId())), client));
+            if (!inserts.isEmpty()) {
+                bulkOperations.insert(inserts);
+            }
+            bulkOperations.execute();
+            inserted += inserts.size();
+            replaced += replacements.size();
+            inserts.clear();
+            replacements.clear();
+        }
+    }
+
 }
@@ -0,0 +1,92 @@
+package oidc.manage;
+
+import oidc.model.OpenIDClient;
+import oidc.repository.OpenIDClientRepository;
+import oidc.repository.SequenceRepository;
+import oidc.secure.SnapshotRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * All OpenID clients in memory. A push from Manage changes the clients and the version in the sequences collection,
+ * the other nodes pick up the new version within the refresh interval or when a client is not found. The version check
+ * for unknown clients - e.g. junk client_id's in unauthenticated requests - is done at most once a second.
+ */
+@Component
+public class OpenIDClientCache implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final long MISS_REFRESH_INTERVAL_MILLIS = 1000L;
+
+    private OpenIDClientRepository openIDClientRepository;
+    private SnapshotRegistry<Map<String, OpenIDClient>> clients;
+    private final AtomicLong lastMissRefresh = new AtomicLong();
+
+    public OpenIDClientCache(OpenIDClientRepository openIDClientRepository,
+                             SequenceRepository sequenceRepository,
+                             @Value("${manage.refresh-interval-seconds}") long refreshIntervalSeconds) {
+        this.openIDClientRepository = openIDClientRepository;
+        this.clients = new SnapshotRegistry<>(sequenceRepository::currentOpenIDClientVersion,
+                () -> index(this.openIDClientRepository.findAll()), refreshIntervalSeconds * 1000L);
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        clients.refresh();
+    }
+
+    public OpenIDClient findByClientId(String clientId) {
+        OpenIDClient openIDClient = clients.get().get(clientId);
+        if (openIDClient == null && missRefreshAllowed()) {
+            openIDClient = clients.refresh(state -> !state.containsKey(clientId)).get(clientId);
+        }
+        if (openIDClient == null) {
+            throw new EmptyResultDataAccessException(String.format("OpenIDClient %s not found", clientId), 1);
+        }
+        return openIDClient;
+    }
+
+    /**
+     * The clients that are known, in the order of the client IDs. Unknown client IDs - e.g. a resource server that is
+     * not yet provisioned - are skipped without reloading the clients.
+     */
+    public List<OpenIDClient> findAllByClientIds(Collection<String> clientIds) {
+        Map<String, OpenIDClient> current = clients.get();
+        return clientIds.stream()
+                .map(current::get)
+                .filter(Objects::nonNull)
+                .collect(toList());
+    }
+
+    private boolean missRefreshAllowed() {
+        long now = System.currentTimeMillis();
+        long last = lastMissRefresh.get();
+        return now - last >= MISS_REFRESH_INTERVAL_MILLIS && lastMissRefresh.compareAndSet(last, now);
+    }
+
+    /**
+     * Reloads the clients if the version has changed, e.g. after a push on this node
+     */
+    public void refresh() {
+        clients.refresh();
+    }
+
+    private Map<String, OpenIDClient> index(List<OpenIDClient> openIDClients) {
+        //compile the policies at load time instead of on the first request
+        openIDClients.forEach(OpenIDClient::getPolicy);
+        return Collections.unmodifiableMap(openIDClients.stream()
+                .collect(toMap(OpenIDClient::getClientId, openIDClient -> openIDClient, (first, second) -> first)));
+    }
+}
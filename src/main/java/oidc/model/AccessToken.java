@@ -5,24 +5,19 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-import java.nio.charset.Charset;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Date;
 import java.util.List;
-import java.util.UUID;
 
 @NoArgsConstructor
 @Document(collection = "access_tokens")
 public class AccessToken {
 
+    //SHA-256 of the token
     @Id
-    private String id;
-
-    private String innerValue;
-
-    private String value;
+    private byte[] id;
 
     private String sub;
 
@@ -32,20 +27,22 @@ public class AccessToken {
 
     private String signingKeyId;
 
+    private String claimKeyId;
+
     private Date expiresIn;
 
     private boolean clientCredentials;
 
-    private String authorizationCodeId;
+    private byte[] authorizationCodeId;
 
     public AccessToken(String value, String sub, String clientId, List<String> scopes, String signingKeyId,
-                       Date expiresIn, boolean clientCredentials, String authorizationCodeId) {
-        this.innerValue = value;
-        this.value = UUID.nameUUIDFromBytes(value.getBytes(Charset.defaultCharset())).toString();
+                       String claimKeyId, Date expiresIn, boolean clientCredentials, byte[] authorizationCodeId) {
+        this.id = TokenHash.sha256(value);
         this.sub = sub;
         this.clientId = clientId;
         this.scopes = scopes;
         this.signingKeyId = signingKeyId;
+        this.claimKeyId = claimKeyId;
         this.expiresIn = expiresIn != null ? expiresIn :
                 Date.from(LocalDateTime.now().plusSeconds(3600).atZone(ZoneId.systemDefault()).toInstant());
         this.clientCredentials = clientCredentials;
@@ -57,6 +54,10 @@ public class AccessToken {
         return clock.instant().isAfter(expiresIn.toInstant());
     }
 
+    public byte[] getId() {
+        return id;
+    }
+
     public String getSub() {
         return sub;
     }
@@ -65,6 +66,10 @@ public class AccessToken {
         return clientId;
     }
 
+    public String getClaimKeyId() {
+        return claimKeyId;
+    }
+
     public List<String> getScopes() {
         return scopes;
     }
@@ -6,6 +6,7 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.Arrays;
 import java.util.Date;
 
 @Document(collection = "authentication_requests")
@@ -20,4 +21,24 @@ public class AuthenticationRequest {
     private Date expiresIn;
 
     private String originalRequestUrl;
+
+    /*
+     * The query string of the authentication request merged with the verified claims of its request object, without
+     * the request and request_uri. Null if the original request has no request object.
+     */
+    private String verifiedRequest;
+
+    private byte[] requestObjectHash;
+
+    public AuthenticationRequest(String id, Date expiresIn, String originalRequestUrl) {
+        this(id, expiresIn, originalRequestUrl, null, null);
+    }
+
+    /**
+     * The request object is the value of the request or request_uri parameter
+     */
+    public boolean isVerifiedRequestFor(String requestObject) {
+        return verifiedRequest != null && requestObjectHash != null && requestObject != null
+                && Arrays.equals(requestObjectHash, TokenHash.sha256(requestObject));
+    }
 }
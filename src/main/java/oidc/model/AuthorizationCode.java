@@ -18,9 +18,12 @@ import java.util.List;
 @Document(collection = "authorization_codes")
 public class AuthorizationCode {
 
+    //SHA-256 of the code
     @Id
-    private String id;
+    private byte[] id;
 
+    //only available when the code is issued, it is not stored
+    @Transient
     private String code;
 
     private String sub;
@@ -50,6 +53,7 @@ public class AuthorizationCode {
     public AuthorizationCode(String code, String sub, String clientId, List<String> scopes, URI redirectUri,
                              String codeChallenge, String codeChallengeMethod, String nonce, List<String> idTokenClaims,
                              boolean redirectURIProvided, Date expiresIn) {
+        this.id = TokenHash.sha256(code);
         this.code = code;
         this.sub = sub;
         this.clientId = clientId;
@@ -0,0 +1,60 @@
+package oidc.model;
+
+import com.nimbusds.oauth2.sdk.GrantType;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The redirect URIs, scopes and grant types of an {@link OpenIDClient} compiled into hash sets. Immutable and built
+ * once per client instance, so the per-request validations are constant time lookups.
+ */
+public class ClientPolicy {
+
+    public static final List<String> forFreeOpenIDScopes = Collections.unmodifiableList(
+            Arrays.asList("profile", "email", "address", "phone"));
+
+    private final String defaultRedirectUrl;
+    private final Set<String> redirectUrls;
+    private final Set<String> scopes;
+    private final Set<GrantType> grants;
+
+    public ClientPolicy(OpenIDClient client) {
+        List<String> clientRedirectUrls = client.getRedirectUrls();
+        this.defaultRedirectUrl = clientRedirectUrls == null || clientRedirectUrls.isEmpty() ? null : clientRedirectUrls.get(0);
+        this.redirectUrls = toSet(clientRedirectUrls);
+
+        Set<String> allowedScopes = new HashSet<>(toSet(client.getScopes()));
+        allowedScopes.addAll(forFreeOpenIDScopes);
+        this.scopes = Collections.unmodifiableSet(allowedScopes);
+
+        this.grants = Collections.unmodifiableSet(toSet(client.getGrants()).stream()
+                .map(GrantType::new)
+                .collect(Collectors.toSet()));
+    }
+
+    public String getDefaultRedirectUrl() {
+        return defaultRedirectUrl;
+    }
+
+    public boolean isRedirectUrlAllowed(String redirectUrl) {
+        return redirectUrls.contains(redirectUrl);
+    }
+
+    public List<String> getMissingScopes(Collection<String> requestedScopes) {
+        return requestedScopes.stream().filter(scope -> !scopes.contains(scope)).collect(Collectors.toList());
+    }
+
+    public boolean isGrantAllowed(GrantType grantType) {
+        return grants.contains(grantType);
+    }
+
+    private static Set<String> toSet(Collection<String> values) {
+        return values == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(values));
+    }
+}
@@ -9,7 +9,10 @@ public class EncryptedTokenValue {
 
     private String value;
     private String keyId;
+    private String claimKeyId;
+    private String claims;
 
-
-
+    public EncryptedTokenValue(String value, String keyId) {
+        this(value, keyId, null, null);
+    }
 }
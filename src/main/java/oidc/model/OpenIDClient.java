@@ -1,5 +1,8 @@
 package oidc.model;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
@@ -10,6 +13,7 @@ import org.springframework.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -22,6 +26,9 @@ import static oidc.manage.ServiceProviderTranslation.translateServiceProviderEnt
 public class OpenIDClient {
 
     @Transient
+    private static final ObjectMapper canonicalObjectMapper = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
     private static final List<String> nameIdFormats = Arrays.asList("NameIDFormat", "NameIDFormats:0", "NameIDFormats:1", "NameIDFormats:2");
 
     @Id
@@ -43,8 +50,19 @@ public class OpenIDClient {
     private String signingCertificate;
     private String signingCertificateUrl;
 
+    //public JWK of a resource server, used to encrypt the user claims in access tokens for the resource server
+    private String accessTokenEncryptionKey;
+
     private boolean includeUnspecifiedNameID;
 
+    private String idTokenSignedResponseAlg;
+
+    //SHA-256 of the pushed metadata, used to provision only the changed clients
+    private String contentHash;
+
+    @Transient
+    private volatile ClientPolicy policy;
+
     public OpenIDClient(String clientId, List<String> redirectUrls, List<String> scopes, List<String> grants) {
         this.clientId = clientId;
         this.redirectUrls = redirectUrls;
@@ -76,12 +94,39 @@ public class OpenIDClient {
         this.discoveryUrl = (String) metaDataFields.get("discoveryurl");
         this.signingCertificate = (String) metaDataFields.get("oidc:signingCertificate");
         this.signingCertificateUrl = (String) metaDataFields.get("oidc:signingCertificateUrl");
+        this.idTokenSignedResponseAlg = (String) metaDataFields.get("id_token_signed_response_alg");
+        this.accessTokenEncryptionKey = (String) metaDataFields.get("oidc:accessTokenEncryptionKey");
 
         this.includeUnspecifiedNameID = nameIdFormats.stream()
                 .filter(id -> metaDataFields.containsKey(id))
                 .map(id -> metaDataFields.get(id).equals(NameIdFormat.UNSPECIFIED))
                 .findAny()
                 .isPresent();
+
+        this.contentHash = contentHash(root);
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @Transient
+    public ClientPolicy getPolicy() {
+        ClientPolicy result = policy;
+        if (result == null) {
+            //immutable, so concurrent initialisation at worst compiles the same policy twice
+            result = new ClientPolicy(this);
+            policy = result;
+        }
+        return result;
+    }
+
+    private static String contentHash(Map<String, Object> root) {
+        try {
+            return Base64.getEncoder().encodeToString(TokenHash.sha256(canonicalObjectMapper.writeValueAsString(root)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 
     @Transient
@@ -90,6 +135,11 @@ public class OpenIDClient {
                 || StringUtils.hasText(discoveryUrl);
     }
 
+    @Transient
+    public boolean accessTokenEncryptionKeySpecified() {
+        return resourceServer && StringUtils.hasText(accessTokenEncryptionKey);
+    }
+
     @Transient
     //Backward compatibility with older versions of Manage where all metadata values wer Strings
     private boolean parseBoolean(Object val) {
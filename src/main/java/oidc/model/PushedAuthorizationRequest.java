@@ -0,0 +1,49 @@
+package oidc.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Authorization request pushed by a client to the PAR endpoint (RFC 9126). The validated request - merged with the
+ * verified claims of its request object - is referenced by a short request_uri in the authorization request, so the
+ * parameters and request objects no longer have to fit in the URL. The documents are removed by a TTL index.
+ */
+@Getter
+@NoArgsConstructor
+@Document(collection = "pushed_authorization_requests")
+public class PushedAuthorizationRequest {
+
+    public static final String REQUEST_URI_PREFIX = "urn:ietf:params:oauth:request_uri:";
+
+    //SHA-256 of the request_uri
+    @Id
+    private byte[] id;
+
+    //only available when the request is pushed, it is not stored
+    @Transient
+    private String requestURI;
+
+    private String clientId;
+
+    //the query string of the validated authorization request without request and request_uri
+    private String request;
+
+    private Date expiresIn;
+
+    public PushedAuthorizationRequest(String requestURI, String clientId, String request, Date expiresIn) {
+        this.id = TokenHash.sha256(requestURI);
+        this.requestURI = requestURI;
+        this.clientId = clientId;
+        this.request = request;
+        this.expiresIn = expiresIn;
+    }
+
+    public static boolean isPushedRequestURI(String requestURI) {
+        return requestURI != null && requestURI.startsWith(REQUEST_URI_PREFIX);
+    }
+}
@@ -10,15 +10,25 @@ import java.util.List;
 @Document(collection = "refresh_tokens")
 public class RefreshToken extends AccessToken {
 
-    private String accessTokenValue;
+    //id of the access token issued together with this refresh token
+    private byte[] accessTokenId;
 
-    public RefreshToken(String value, String sub, String clientId, List<String> scopes, Date expiresIn, String accessTokenValue, boolean clientCredentials) {
-        super(value, sub, clientId, scopes, null, expiresIn, clientCredentials, null);
-        this.accessTokenValue = accessTokenValue;
+    //encrypted user claims for the new access token, null for client credentials
+    private String claims;
+
+    public RefreshToken(String value, String sub, String clientId, List<String> scopes, Date expiresIn, String accessTokenValue,
+                        String claims, String claimKeyId, boolean clientCredentials) {
+        super(value, sub, clientId, scopes, null, claimKeyId, expiresIn, clientCredentials, null);
+        this.accessTokenId = TokenHash.sha256(accessTokenValue);
+        this.claims = claims;
+    }
+
+    public byte[] getAccessTokenId() {
+        return accessTokenId;
     }
 
-    public String getAccessTokenValue() {
-        return accessTokenValue;
+    public String getClaims() {
+        return claims;
     }
 }
 
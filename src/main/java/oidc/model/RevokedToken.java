@@ -0,0 +1,33 @@
+package oidc.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Revocation log of access tokens that were deleted before they expired. Used to validate access tokens without a
+ * database lookup, the documents are removed by a TTL index when the access token has expired anyway. Nodes read the
+ * log incrementally by revokedAt.
+ */
+@Getter
+@NoArgsConstructor
+@Document(collection = "revoked_tokens")
+public class RevokedToken {
+
+    //SHA-256 of the access token, the ID of the deleted AccessToken
+    @Id
+    private byte[] id;
+
+    private Date expiresIn;
+
+    private Date revokedAt;
+
+    public RevokedToken(AccessToken accessToken) {
+        this.id = accessToken.getId();
+        this.expiresIn = accessToken.getExpiresIn();
+        this.revokedAt = new Date();
+    }
+}
@@ -0,0 +1,23 @@
+package oidc.model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Tokens and authorization codes are stored with the SHA-256 digest of their value as _id. The value itself is never
+ * persisted and the lookup uses the default _id index.
+ */
+public class TokenHash {
+
+    private TokenHash() {
+    }
+
+    public static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
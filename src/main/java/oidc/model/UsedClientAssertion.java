@@ -0,0 +1,29 @@
+package oidc.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * The jti of a private_key_jwt client assertion that has been used. An assertion can only be used once, the documents
+ * are removed by a TTL index when the assertion has expired anyway.
+ */
+@Getter
+@NoArgsConstructor
+@Document(collection = "used_client_assertions")
+public class UsedClientAssertion {
+
+    //client ID and jti, the jti is only unique per client
+    @Id
+    private String id;
+
+    private Date expiresIn;
+
+    public UsedClientAssertion(String clientId, String jwtId, Date expiresIn) {
+        this.id = clientId + " " + jwtId;
+        this.expiresIn = expiresIn;
+    }
+}
@@ -1,5 +1,6 @@
 package oidc.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -8,7 +9,10 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +35,10 @@ public class User implements Serializable {
     private long updatedAt = System.currentTimeMillis() / 1000L;
     private Map<String, Object> attributes = new HashMap<>();
     private List<String> acrClaims = new ArrayList<>();
+    //TTL, extended to the expiry of every authorization code issued for this user. Not part of the claims in tokens
+    @EqualsAndHashCode.Exclude
+    @JsonIgnore
+    private Date expiresIn;
 
     public User(String sub, String unspecifiedNameId, String authenticatingAuthority, String clientId,
                 Map<String, Object> attributes, List<String> acrClaims) {
@@ -40,10 +48,15 @@ public class User implements Serializable {
         this.clientId = clientId;
         this.attributes = attributes;
         this.acrClaims = acrClaims;
+        this.expiresIn = Date.from(LocalDateTime.now().plusMinutes(10).atZone(ZoneId.systemDefault()).toInstant());
     }
 
     public void setId(String id) {
         this.id = id;
     }
 
+    public void setExpiresIn(Date expiresIn) {
+        this.expiresIn = expiresIn;
+    }
+
 }
@@ -5,13 +5,28 @@ import com.github.mongobee.changeset.ChangeLog;
 import com.github.mongobee.changeset.ChangeSet;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.nimbusds.jwt.SignedJWT;
 import oidc.model.AccessToken;
+import oidc.model.AuthenticationRequest;
 import oidc.model.AuthorizationCode;
 import oidc.model.OpenIDClient;
+import oidc.model.PushedAuthorizationRequest;
 import oidc.model.RefreshToken;
+import oidc.model.RevokedToken;
 import oidc.model.SigningKey;
 import oidc.model.SymmetricKey;
+import oidc.model.TokenHash;
+import oidc.model.UsedClientAssertion;
 import oidc.model.User;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.BsonType;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -21,11 +36,19 @@ import org.springframework.data.mongodb.MongoTransactionManager;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
 import static java.util.Collections.singletonList;
@@ -34,6 +57,10 @@ import static java.util.Collections.singletonList;
 @ChangeLog
 public class MongobeeConfiguration {
 
+    private static final Log LOG = LogFactory.getLog(MongobeeConfiguration.class);
+
+    private static final int REKEY_BATCH_SIZE = 1000;
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
@@ -105,6 +132,151 @@ public class MongobeeConfiguration {
                 .forEach(clazz -> mongoTemplate.remove(new Query(), clazz));
     }
 
+    @ChangeSet(order = "006", id = "compactTokens", author = "Okke Harsta")
+    public void compactTokens(MongoTemplate mongoTemplate) {
+        //refresh tokens keep the encrypted claims instead of the access token. The plain values are needed to re-key
+        //the tokens in tokenHashAsId, which removes them
+        MongoCollection<Document> refreshTokens = mongoTemplate.getCollection(mongoTemplate.getCollectionName(RefreshToken.class));
+        for (Document refreshToken : refreshTokens.find(Filters.and(Filters.exists("innerValue"), Filters.exists("claims", false)))) {
+            if (!refreshToken.getBoolean("clientCredentials", false)) {
+                Map<String, Object> claims = jwtClaims(refreshToken.getString("accessTokenValue"));
+                refreshTokens.updateOne(Filters.eq("_id", refreshToken.get("_id")),
+                        new Document("$set", new Document("claims", claims.get("claims")).append("claimKeyId", claims.get("claim_key_id"))));
+            }
+        }
+
+        dropIndex(mongoTemplate, RefreshToken.class, "innerValue_unique");
+    }
+
+    @ChangeSet(order = "007", id = "tokenHashAsId", author = "Okke Harsta")
+    public void tokenHashAsId(MongoTemplate mongoTemplate) {
+        //the SHA-256 of the token is the _id. New documents have no value or code, so the unique indexes must go first
+        dropIndex(mongoTemplate, AccessToken.class, "value_unique");
+        dropIndex(mongoTemplate, RefreshToken.class, "value_unique");
+        dropIndex(mongoTemplate, AuthorizationCode.class, "code_unique");
+
+        //access tokens referenced the ObjectId of their authorization code instead of its hash
+        Map<String, byte[]> authorizationCodeIds = new HashMap<>();
+        MongoCollection<Document> authorizationCodes = mongoTemplate.getCollection(mongoTemplate.getCollectionName(AuthorizationCode.class));
+        for (Document authorizationCode : authorizationCodes.find(Filters.exists("code"))) {
+            authorizationCodeIds.put(authorizationCode.get("_id").toString(), TokenHash.sha256(authorizationCode.getString("code")));
+        }
+
+        rekeyTokens(mongoTemplate, AuthorizationCode.class, "code", (code, authorizationCode) -> {
+        });
+        rekeyTokens(mongoTemplate, AccessToken.class, "innerValue", (value, accessToken) -> {
+            if (!accessToken.getBoolean("clientCredentials", false)) {
+                //the symmetric key cleanup relies on the claimKeyId of the access tokens
+                accessToken.put("claimKeyId", jwtClaims(value).get("claim_key_id"));
+            }
+            Object authorizationCodeId = accessToken.remove("authorizationCodeId");
+            if (authorizationCodeId != null && authorizationCodeIds.containsKey(authorizationCodeId.toString())) {
+                accessToken.put("authorizationCodeId", authorizationCodeIds.get(authorizationCodeId.toString()));
+            }
+        });
+        rekeyTokens(mongoTemplate, RefreshToken.class, "innerValue", (value, refreshToken) -> {
+            String accessTokenValue = (String) refreshToken.remove("accessTokenValue");
+            if (accessTokenValue != null) {
+                refreshToken.put("accessTokenId", TokenHash.sha256(accessTokenValue));
+            }
+        });
+    }
+
+    @ChangeSet(order = "008", id = "createExpiresInTTLIndexes", author = "Okke Harsta")
+    public void createExpiresInTTLIndexes(MongoTemplate mongoTemplate) {
+        //MongoDB removes the documents as soon as expiresIn has passed, replacing the scheduled bulk deletes
+        Stream.of(AccessToken.class, RefreshToken.class, AuthorizationCode.class, AuthenticationRequest.class).forEach(clazz -> {
+            if (!mongoTemplate.collectionExists(clazz)) {
+                mongoTemplate.createCollection(clazz);
+            }
+            mongoTemplate.indexOps(clazz).ensureIndex(new Index("expiresIn", Sort.Direction.ASC).named("expiresIn_ttl").expire(0L));
+        });
+    }
+
+    @ChangeSet(order = "009", id = "createUserTTLIndex", author = "Okke Harsta")
+    public void createUserTTLIndex(MongoTemplate mongoTemplate) {
+        //existing users are referenced by authorization codes that expire within the default code validity
+        Date expiresIn = Date.from(LocalDateTime.now().plusMinutes(10).atZone(ZoneId.systemDefault()).toInstant());
+        mongoTemplate.updateMulti(Query.query(Criteria.where("expiresIn").exists(false)),
+                Update.update("expiresIn", expiresIn), User.class);
+        mongoTemplate.indexOps(User.class).ensureIndex(new Index("expiresIn", Sort.Direction.ASC).named("expiresIn_ttl").expire(0L));
+    }
+
+    @ChangeSet(order = "010", id = "createRevokedTokenTTLIndex", author = "Okke Harsta")
+    public void createRevokedTokenTTLIndex(MongoTemplate mongoTemplate) {
+        if (!mongoTemplate.collectionExists(RevokedToken.class)) {
+            mongoTemplate.createCollection(RevokedToken.class);
+        }
+        mongoTemplate.indexOps(RevokedToken.class).ensureIndex(new Index("expiresIn", Sort.Direction.ASC).named("expiresIn_ttl").expire(0L));
+    }
+
+    @ChangeSet(order = "011", id = "createPushedAuthorizationRequestTTLIndex", author = "Okke Harsta")
+    public void createPushedAuthorizationRequestTTLIndex(MongoTemplate mongoTemplate) {
+        if (!mongoTemplate.collectionExists(PushedAuthorizationRequest.class)) {
+            mongoTemplate.createCollection(PushedAuthorizationRequest.class);
+        }
+        mongoTemplate.indexOps(PushedAuthorizationRequest.class).ensureIndex(new Index("expiresIn", Sort.Direction.ASC).named("expiresIn_ttl").expire(0L));
+    }
+
+    @ChangeSet(order = "012", id = "createUsedClientAssertionTTLIndex", author = "Okke Harsta")
+    public void createUsedClientAssertionTTLIndex(MongoTemplate mongoTemplate) {
+        if (!mongoTemplate.collectionExists(UsedClientAssertion.class)) {
+            mongoTemplate.createCollection(UsedClientAssertion.class);
+        }
+        mongoTemplate.indexOps(UsedClientAssertion.class).ensureIndex(new Index("expiresIn", Sort.Direction.ASC).named("expiresIn_ttl").expire(0L));
+    }
+
+    @ChangeSet(order = "013", id = "createRevokedTokenRevokedAtIndex", author = "Okke Harsta")
+    public void createRevokedTokenRevokedAtIndex(MongoTemplate mongoTemplate) {
+        mongoTemplate.indexOps(RevokedToken.class).ensureIndex(new Index("revokedAt", Sort.Direction.ASC).named("revokedAt"));
+    }
+
+    /**
+     * Replaces each document that still has the plain value with a copy that has the SHA-256 of the value as _id, in
+     * bulk inserts and deletes. Documents without the plain value - compacted by an earlier version of compactTokens -
+     * can not be re-keyed and are removed.
+     */
+    private void rekeyTokens(MongoTemplate mongoTemplate, Class<?> clazz, String valueField, BiConsumer<String, Document> migration) {
+        MongoCollection<Document> collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(clazz));
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (Document document : collection.find(Filters.exists(valueField))) {
+            Document rekeyed = new Document(document);
+            String value = (String) rekeyed.remove(valueField);
+            rekeyed.remove("value");
+            rekeyed.put("_id", TokenHash.sha256(value));
+            migration.accept(value, rekeyed);
+            writes.add(new InsertOneModel<>(rekeyed));
+            writes.add(new DeleteOneModel<>(Filters.eq("_id", document.get("_id"))));
+            if (writes.size() >= REKEY_BATCH_SIZE) {
+                collection.bulkWrite(writes);
+                writes.clear();
+            }
+        }
+        if (!writes.isEmpty()) {
+            collection.bulkWrite(writes);
+        }
+        long removed = collection.deleteMany(Filters.not(Filters.type("_id", BsonType.BINARY))).getDeletedCount();
+        if (removed > 0) {
+            LOG.warn(String.format("Removed %s documents from %s without a plain value that could not be re-keyed",
+                    removed, collection.getNamespace().getCollectionName()));
+        }
+    }
+
+    private Map<String, Object> jwtClaims(String jwt) {
+        try {
+            return SignedJWT.parse(jwt).getJWTClaimsSet().getClaims();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private void dropIndex(MongoTemplate mongoTemplate, Class<?> clazz, String name) {
+        IndexOperations indexOperations = mongoTemplate.indexOps(clazz);
+        if (indexOperations.getIndexInfo().stream().anyMatch(indexInfo -> indexInfo.getName().equals(name))) {
+            indexOperations.dropIndex(name);
+        }
+    }
+
     private void ensureCollectionsAndIndexes(MongoTemplate mongoTemplate, Map<Class<?>, List<String>> indexInfo) {
         indexInfo.forEach((collection, fields) -> {
             if (!mongoTemplate.collectionExists(collection)) {
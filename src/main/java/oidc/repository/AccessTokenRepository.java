@@ -1,17 +1,16 @@
 package oidc.repository;
 
 import oidc.model.AccessToken;
+import oidc.model.TokenHash;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
-import java.nio.charset.Charset;
-import java.util.Date;
+import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 
 @Repository
-public interface AccessTokenRepository extends MongoRepository<AccessToken, String> {
+public interface AccessTokenRepository extends MongoRepository<AccessToken, byte[]> {
 
     default AccessToken findByValue(String value) {
         Optional<AccessToken> accessToken = findOptionalAccessTokenByValue(value);
@@ -19,14 +18,8 @@ public interface AccessTokenRepository extends MongoRepository<AccessToken, Stri
     }
 
     default Optional<AccessToken> findOptionalAccessTokenByValue(String value) {
-        String newValue = UUID.nameUUIDFromBytes(value.getBytes(Charset.defaultCharset())).toString();
-        return findAccessTokenByValue(newValue);
+        return findById(TokenHash.sha256(value));
     }
 
-    Long deleteByExpiresInBefore(Date expiryDate);
-
-    Long deleteByAuthorizationCodeId(String authorizationCodeId);
-
-    //Do not use
-    Optional<AccessToken> findAccessTokenByValue(String value);
+    List<AccessToken> deleteByAuthorizationCodeId(byte[] authorizationCodeId);
 }
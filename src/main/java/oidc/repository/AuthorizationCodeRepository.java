@@ -1,21 +1,16 @@
 package oidc.repository;
 
 import oidc.model.AuthorizationCode;
+import oidc.model.TokenHash;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.mongodb.repository.MongoRepository;
-import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
-import java.util.Date;
-import java.util.List;
-
 @Repository
-public interface AuthorizationCodeRepository extends MongoRepository<AuthorizationCode, String> {
-
-    AuthorizationCode findByCode(String code);
-
-    Long deleteByExpiresInBefore(Date expiryDate);
-
-    @Query(value="{}", fields="{sub : 1, _id : 0}")
-    List<AuthorizationCode> findSub();
+public interface AuthorizationCodeRepository extends MongoRepository<AuthorizationCode, byte[]> {
 
+    default AuthorizationCode findByCode(String code) {
+        return findById(TokenHash.sha256(code))
+                .orElseThrow(() -> new EmptyResultDataAccessException("AuthorizationCode not found", 1));
+    }
 }
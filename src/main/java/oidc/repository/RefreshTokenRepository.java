@@ -1,16 +1,16 @@
 package oidc.repository;
 
 import oidc.model.RefreshToken;
+import oidc.model.TokenHash;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
-import java.util.Date;
-
 @Repository
-public interface RefreshTokenRepository extends MongoRepository<RefreshToken, String> {
-
-    RefreshToken findByInnerValue(String value);
-
-    Long deleteByExpiresInBefore(Date expiryDate);
+public interface RefreshTokenRepository extends MongoRepository<RefreshToken, byte[]> {
 
+    default RefreshToken findByValue(String value) {
+        return findById(TokenHash.sha256(value))
+                .orElseThrow(() -> new EmptyResultDataAccessException("RefreshToken not found", 1));
+    }
 }
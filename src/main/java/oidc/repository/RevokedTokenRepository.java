@@ -0,0 +1,15 @@
+package oidc.repository;
+
+import oidc.model.RevokedToken;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface RevokedTokenRepository extends MongoRepository<RevokedToken, byte[]> {
+
+    List<RevokedToken> findByRevokedAtGreaterThanEqual(Date revokedAt);
+
+}
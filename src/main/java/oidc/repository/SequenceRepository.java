@@ -1,5 +1,6 @@
 package oidc.repository;
 
+import oidc.model.OpenIDClient;
 import oidc.model.Sequence;
 import oidc.model.SigningKey;
 import oidc.model.SymmetricKey;
@@ -13,14 +14,18 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class SequenceRepository {
 
-    private static final String SIGNING_KEY_ID = SigningKey.class.getSimpleName();
-    private static final String SYMMETRIC_KEY_ID = SymmetricKey.class.getSimpleName();
+    public static final String SIGNING_KEY_ID = SigningKey.class.getSimpleName();
+    public static final String SYMMETRIC_KEY_ID = SymmetricKey.class.getSimpleName();
+    public static final String OPEN_ID_CLIENT_VERSION = OpenIDClient.class.getSimpleName();
+
+    private static final String NO_VALUE = "nope";
 
     private FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true);
     private MongoTemplate mongoTemplate;
 
     private BasicQuery signingKeyBasicQuery = new BasicQuery(String.format("{\"_id\":\"%s\"}", SIGNING_KEY_ID));
     private BasicQuery symmetricKeyBasicQuery = new BasicQuery(String.format("{\"_id\":\"%s\"}", SYMMETRIC_KEY_ID));
+    private BasicQuery openIDClientBasicQuery = new BasicQuery(String.format("{\"_id\":\"%s\"}", OPEN_ID_CLIENT_VERSION));
 
     @Autowired
     public SequenceRepository(MongoTemplate mongoTemplate) {
@@ -28,17 +33,21 @@ public class SequenceRepository {
     }
 
     public void updateSigningKeyId(String newKeyId) {
-        doUpdateKeyId(newKeyId, signingKeyBasicQuery, SIGNING_KEY_ID);
+        doUpdateValue(newKeyId, signingKeyBasicQuery, SIGNING_KEY_ID);
     }
 
     public void updateSymmetricKeyId(String newKeyId) {
-        doUpdateKeyId(newKeyId, symmetricKeyBasicQuery, SYMMETRIC_KEY_ID);
+        doUpdateValue(newKeyId, symmetricKeyBasicQuery, SYMMETRIC_KEY_ID);
+    }
+
+    public void updateOpenIDClientVersion(String version) {
+        doUpdateValue(version, openIDClientBasicQuery, OPEN_ID_CLIENT_VERSION);
     }
 
-    private void doUpdateKeyId(String newKeyId, BasicQuery signingKeyBasicQuery, String signingKeyId) {
-        Sequence res = mongoTemplate.findAndModify(signingKeyBasicQuery, Update.update("value", newKeyId), options, Sequence.class);
+    private void doUpdateValue(String newValue, BasicQuery basicQuery, String id) {
+        Sequence res = mongoTemplate.findAndModify(basicQuery, Update.update("value", newValue), options, Sequence.class);
         if (res == null) {
-            mongoTemplate.save(new Sequence(signingKeyId, newKeyId));
+            mongoTemplate.save(new Sequence(id, newValue));
         }
     }
 
@@ -50,10 +59,14 @@ public class SequenceRepository {
         return getSequenceValue(symmetricKeyBasicQuery);
     }
 
+    public String currentOpenIDClientVersion() {
+        return getSequenceValue(openIDClientBasicQuery);
+    }
+
     private String getSequenceValue(BasicQuery basicQuery) {
         Sequence one = mongoTemplate.findOne(basicQuery, Sequence.class);
         if (one == null) {
-            return "nope";
+            return NO_VALUE;
         }
         return one.getValue();
     }
@@ -0,0 +1,10 @@
+package oidc.repository;
+
+import oidc.model.UsedClientAssertion;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UsedClientAssertionRepository extends MongoRepository<UsedClientAssertion, String> {
+
+}
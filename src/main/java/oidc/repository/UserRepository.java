@@ -4,7 +4,6 @@ import oidc.model.User;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -13,6 +12,4 @@ public interface UserRepository extends MongoRepository<User, String> {
     User findUserBySub(String sub);
 
     Optional<User> findOptionalUserBySub(String sub);
-
-    Long deleteBySubNotIn(List<String> subs);
 }
@@ -0,0 +1,170 @@
+package oidc.secure;
+
+import oidc.model.AccessToken;
+import oidc.model.RevokedToken;
+import oidc.model.TokenHash;
+import oidc.repository.AccessTokenRepository;
+import oidc.repository.RevokedTokenRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Resolves the AccessToken for a token value. In the opt-in stateless mode the signature and issuer of the access token
+ * are validated by the {@link TokenGenerator} and the AccessToken document is only consulted when the token might be
+ * revoked according to the {@link RevocationFilter}. Revocations on this node are added to the filter immediately. The
+ * revocations of other nodes are read incrementally from the revoked_tokens collection every refresh interval. The
+ * filter is only rebuilt - to forget expired revocations - every rebuild interval or when it is full. Both run on the
+ * scheduler thread, never on the request path.
+ */
+@Component
+public class AccessTokenValidator implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Log LOG = LogFactory.getLog(AccessTokenValidator.class);
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    //revocations are read again for this long to cover clock skew between the nodes and slow inserts
+    private static final long REVOCATION_OVERLAP_MILLIS = 60 * 1000L;
+
+    private TokenGenerator tokenGenerator;
+    private AccessTokenRepository accessTokenRepository;
+    private RevokedTokenRepository revokedTokenRepository;
+    private boolean statelessEnabled;
+    private long rebuildIntervalMillis;
+    private int expectedRevocations;
+
+    //null until loaded, decode falls back to the AccessToken document until then
+    private volatile RevocationFilter revocationFilter;
+    private long lastRebuild;
+    private long lastLoad;
+
+    public AccessTokenValidator(TokenGenerator tokenGenerator,
+                                AccessTokenRepository accessTokenRepository,
+                                RevokedTokenRepository revokedTokenRepository,
+                                @Value("${stateless-tokens.enabled}") boolean statelessEnabled,
+                                @Value("${stateless-tokens.rebuild-interval-minutes}") long rebuildIntervalMinutes,
+                                @Value("${stateless-tokens.expected-revocations}") int expectedRevocations) {
+        this.tokenGenerator = tokenGenerator;
+        this.accessTokenRepository = accessTokenRepository;
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.statelessEnabled = statelessEnabled;
+        this.rebuildIntervalMillis = rebuildIntervalMinutes * 60 * 1000L;
+        this.expectedRevocations = expectedRevocations;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        refreshRevocationFilter();
+    }
+
+    @Scheduled(fixedDelayString = "#{${stateless-tokens.refresh-interval-seconds} * 1000}")
+    public synchronized void refreshRevocationFilter() {
+        if (!statelessEnabled) {
+            return;
+        }
+        try {
+            RevocationFilter filter = this.revocationFilter;
+            if (filter == null || filter.isFull() || System.currentTimeMillis() - lastRebuild >= rebuildIntervalMillis) {
+                rebuildRevocationFilter();
+            } else {
+                loadRevocations(filter);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Exception refreshing the revocation filter", e);
+        }
+    }
+
+    public AccessToken findByValue(String value) {
+        return decode(value).orElseGet(() -> accessTokenRepository.findByValue(value));
+    }
+
+    /**
+     * The access tokens that are found, keyed by the wrapped ID of the AccessToken. Only the tokens that can not be
+     * validated locally are queried, in one query. Tampered tokens are not found instead of failing the whole batch.
+     */
+    public Map<ByteBuffer, AccessToken> findAllByValue(List<String> values) {
+        Map<ByteBuffer, AccessToken> accessTokens = new HashMap<>();
+        List<byte[]> queryIds = new ArrayList<>();
+        values.forEach(value -> {
+            Optional<AccessToken> accessToken;
+            try {
+                accessToken = decode(value);
+            } catch (RuntimeException e) {
+                LOG.info("Not a valid access token: " + e.getMessage());
+                accessToken = Optional.empty();
+            }
+            if (accessToken.isPresent()) {
+                accessTokens.put(ByteBuffer.wrap(accessToken.get().getId()), accessToken.get());
+            } else {
+                queryIds.add(TokenHash.sha256(value));
+            }
+        });
+        if (!queryIds.isEmpty()) {
+            accessTokenRepository.findAllById(queryIds)
+                    .forEach(accessToken -> accessTokens.put(ByteBuffer.wrap(accessToken.getId()), accessToken));
+        }
+        return accessTokens;
+    }
+
+    /**
+     * Must be called for access tokens that are deleted before they expire
+     */
+    public void revoke(List<AccessToken> accessTokens) {
+        if (accessTokens.isEmpty()) {
+            return;
+        }
+        accessTokens.forEach(accessToken -> tokenGenerator.evictDecodedAccessToken(accessToken.getId()));
+        if (!statelessEnabled) {
+            return;
+        }
+        //saved before added to the filter, so a rebuild in between reads the revocation from the log
+        accessTokens.forEach(accessToken -> revokedTokenRepository.save(new RevokedToken(accessToken)));
+        RevocationFilter filter = this.revocationFilter;
+        if (filter != null) {
+            accessTokens.forEach(accessToken -> filter.add(accessToken.getId()));
+        }
+    }
+
+    private Optional<AccessToken> decode(String value) {
+        RevocationFilter filter = this.revocationFilter;
+        if (!statelessEnabled || filter == null) {
+            return Optional.empty();
+        }
+        return tokenGenerator.decodeAccessToken(value)
+                .filter(accessToken -> !filter.mightContain(accessToken.getId()));
+    }
+
+    private void rebuildRevocationFilter() {
+        long start = System.currentTimeMillis();
+        List<RevokedToken> revokedTokens = revokedTokenRepository.findAll();
+        //room for the revocations until the next rebuild
+        RevocationFilter filter = new RevocationFilter(Math.max(expectedRevocations, revokedTokens.size() * 2), FALSE_POSITIVE_PROBABILITY);
+        revokedTokens.forEach(revokedToken -> filter.add(revokedToken.getId()));
+        this.revocationFilter = filter;
+        this.lastRebuild = start;
+        this.lastLoad = start;
+        //revocations on this node that were added to the previous filter during the rebuild
+        loadRevocations(filter);
+        LOG.info(String.format("Rebuilt revocation filter with %s revoked access tokens", revokedTokens.size()));
+    }
+
+    private void loadRevocations(RevocationFilter filter) {
+        long start = System.currentTimeMillis();
+        revokedTokenRepository.findByRevokedAtGreaterThanEqual(new Date(lastLoad - REVOCATION_OVERLAP_MILLIS))
+                .forEach(revokedToken -> filter.add(revokedToken.getId()));
+        this.lastLoad = start;
+    }
+}
@@ -0,0 +1,132 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.proc.JWSVerifierFactory;
+import com.nimbusds.jose.util.JSONObjectUtils;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import oidc.model.OpenIDClient;
+import oidc.model.UsedClientAssertion;
+import oidc.repository.UsedClientAssertionRepository;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.security.Key;
+import java.security.cert.CertificateException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.Charset.defaultCharset;
+
+/**
+ * Verifies private_key_jwt client assertions (RFC 7523) with the cached JWK set of the client. The assertion must be
+ * signed with one of the keys of the client, have the client as issuer and subject, must not be expired and must have
+ * the issuer, token endpoint, introspect endpoint or PAR endpoint as audience. It must also have a jti and expire within
+ * a few minutes, as the jti is remembered until the assertion expires so it can only be used once.
+ */
+@Component
+public class ClientAssertionVerifier {
+
+    private static final Log LOG = LogFactory.getLog(ClientAssertionVerifier.class);
+
+    private static final long MAX_CLOCK_SKEW_MILLIS = 60 * 1000L;
+    private static final long MAX_LIFETIME_MILLIS = 5 * 60 * 1000L;
+
+    private final ClientJWKSetCache clientJWKSetCache;
+    private final UsedClientAssertionRepository usedClientAssertionRepository;
+    private final Set<String> audiences;
+    private final JWSVerifierFactory verifierFactory = new DefaultJWSVerifierFactory();
+
+    public ClientAssertionVerifier(ClientJWKSetCache clientJWKSetCache,
+                                   UsedClientAssertionRepository usedClientAssertionRepository,
+                                   @Value("${spring.security.saml2.service-provider.entity-id}") String issuer,
+                                   @Value("${openid_configuration_path}") Resource configurationPath) throws IOException, ParseException {
+        this.clientJWKSetCache = clientJWKSetCache;
+        this.usedClientAssertionRepository = usedClientAssertionRepository;
+        Map<String, Object> configuration = JSONObjectUtils.parse(IOUtils.toString(configurationPath.getInputStream(), defaultCharset()));
+        this.audiences = Arrays.asList(issuer, configuration.get("token_endpoint"), configuration.get("introspect_endpoint"),
+                configuration.get("pushed_authorization_request_endpoint"))
+                .stream()
+                .filter(Objects::nonNull)
+                .map(Object::toString)
+                .collect(Collectors.toSet());
+    }
+
+    public boolean matches(SignedJWT clientAssertion, OpenIDClient openIDClient) {
+        if (!openIDClient.certificateSpecified()) {
+            return false;
+        }
+        try {
+            JWTClaimsSet claimsSet = clientAssertion.getJWTClaimsSet();
+            if (!validClaims(claimsSet, openIDClient)) {
+                return false;
+            }
+            //a client may have rolled over its keys, so retry once with re-fetched keys
+            boolean verified = verifySignature(clientAssertion, openIDClient, false) || verifySignature(clientAssertion, openIDClient, true);
+            return verified && firstUse(claimsSet, openIDClient);
+        } catch (IOException | CertificateException | JOSEException | ParseException e) {
+            LOG.warn(String.format("Exception verifying client assertion of client %s", openIDClient.getClientId()), e);
+            return false;
+        }
+    }
+
+    private boolean validClaims(JWTClaimsSet claimsSet, OpenIDClient openIDClient) {
+        String clientId = openIDClient.getClientId();
+        long now = System.currentTimeMillis();
+        Date expirationTime = claimsSet.getExpirationTime();
+        List<String> audience = claimsSet.getAudience() != null ? claimsSet.getAudience() : Collections.emptyList();
+        boolean valid = clientId.equals(claimsSet.getIssuer()) && clientId.equals(claimsSet.getSubject())
+                && StringUtils.hasText(claimsSet.getJWTID())
+                && expirationTime != null && expirationTime.getTime() + MAX_CLOCK_SKEW_MILLIS > now
+                && expirationTime.getTime() - now <= MAX_LIFETIME_MILLIS
+                && notInFuture(claimsSet.getIssueTime(), now) && notInFuture(claimsSet.getNotBeforeTime(), now)
+                && audience.stream().anyMatch(audiences::contains);
+        if (!valid) {
+            LOG.info(String.format("Invalid claims in client assertion of client %s", clientId));
+        }
+        return valid;
+    }
+
+    private boolean notInFuture(Date date, long now) {
+        return date == null || date.getTime() - MAX_CLOCK_SKEW_MILLIS <= now;
+    }
+
+    private boolean firstUse(JWTClaimsSet claimsSet, OpenIDClient openIDClient) {
+        Date expiresIn = new Date(claimsSet.getExpirationTime().getTime() + MAX_CLOCK_SKEW_MILLIS);
+        try {
+            usedClientAssertionRepository.insert(new UsedClientAssertion(openIDClient.getClientId(), claimsSet.getJWTID(), expiresIn));
+            return true;
+        } catch (DuplicateKeyException e) {
+            LOG.warn(String.format("Replayed client assertion with jti %s of client %s", claimsSet.getJWTID(), openIDClient.getClientId()));
+            return false;
+        }
+    }
+
+    private boolean verifySignature(SignedJWT clientAssertion, OpenIDClient openIDClient, boolean forceRefresh)
+            throws IOException, CertificateException, JOSEException, ParseException {
+        JWSHeader header = clientAssertion.getHeader();
+        List<Key> keys = clientJWKSetCache.getVerifier(openIDClient, forceRefresh).selectKeys(header);
+        for (Key key : keys) {
+            if (clientAssertion.verify(verifierFactory.createJWSVerifier(header, key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.util.JSONObjectUtils;
+import oidc.model.OpenIDClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed JWK sets of clients, resolved from the signingCertificate, signingCertificateUrl or discoveryUrl of the client.
+ * Remote certificates, JWK sets and discovery documents are cached in a {@link RemoteDocumentCache} honouring the HTTP
+ * cache headers with a lifetime between min-refresh-interval-seconds and ttl-seconds. A JWK set is only parsed again
+ * when the certificate or the remote document has changed, so a push from Manage that changes the certificate fields is
+ * picked up immediately. The {@link ClientVerifier} built from the JWK set is kept with it, so the key selectors and JWT
+ * processors are reused across requests of the same client.
+ */
+@Component
+public class ClientJWKSetCache {
+
+    private final Map<String, Entry> verifiers = new ConcurrentHashMap<>();
+    private final RemoteDocumentCache remoteDocuments;
+
+    public ClientJWKSetCache(OutboundFetcher outboundFetcher,
+                             @Value("${client-keys.ttl-seconds}") long ttlSeconds,
+                             @Value("${client-keys.min-refresh-interval-seconds}") long minRefreshIntervalSeconds) {
+        this.remoteDocuments = new RemoteDocumentCache(outboundFetcher, minRefreshIntervalSeconds * 1000L, ttlSeconds * 1000L);
+    }
+
+    /**
+     * With forceRefresh the remote documents are re-fetched if they are older than min-refresh-interval-seconds, e.g.
+     * when a signature does not verify with the cached keys because the client has rolled over its keys.
+     */
+    ClientVerifier getVerifier(OpenIDClient openIDClient, boolean forceRefresh)
+            throws IOException, CertificateException, JOSEException, ParseException {
+        Entry entry = verifiers.get(openIDClient.getClientId());
+        String discovery = null;
+        String jwksUri = null;
+        String signingCertificate;
+        if (StringUtils.hasText(openIDClient.getSigningCertificateUrl())) {
+            signingCertificate = remoteDocuments.get(openIDClient.getSigningCertificateUrl(), forceRefresh);
+        } else if (StringUtils.hasText(openIDClient.getSigningCertificate())) {
+            signingCertificate = openIDClient.getSigningCertificate();
+        } else {
+            discovery = remoteDocuments.get(openIDClient.getDiscoveryUrl(), forceRefresh);
+            //unchanged cached documents are the same instance, so this is a reference comparison most of the time
+            jwksUri = entry != null && discovery.equals(entry.discovery) ? entry.jwksUri :
+                    (String) JSONObjectUtils.parse(discovery).get("jwks_uri");
+            signingCertificate = remoteDocuments.get(jwksUri, forceRefresh);
+        }
+        if (entry != null && signingCertificate.equals(entry.signingCertificate)) {
+            return entry.verifier;
+        }
+        ClientVerifier verifier = new ClientVerifier(JWTRequest.jwkSet(signingCertificate));
+        verifiers.put(openIDClient.getClientId(), new Entry(signingCertificate, discovery, jwksUri, verifier));
+        return verifier;
+    }
+
+    int size() {
+        return verifiers.size();
+    }
+
+    private static class Entry {
+
+        private final String signingCertificate;
+        private final String discovery;
+        private final String jwksUri;
+        private final ClientVerifier verifier;
+
+        private Entry(String signingCertificate, String discovery, String jwksUri, ClientVerifier verifier) {
+            this.signingCertificate = signingCertificate;
+            this.discovery = discovery;
+            this.jwksUri = jwksUri;
+            this.verifier = verifier;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package oidc.secure;
+
+import oidc.model.OpenIDClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verifies client secrets against the BCrypt hash of the client and remembers successful verifications for a limited
+ * time, so busy clients and resource servers do not pay the BCrypt cost on every request. The presented secret is
+ * never stored: the cache key is an HMAC, with a random per-node key, of the client ID, the presented secret and the
+ * stored BCrypt hash. A push from Manage that changes the secret of a client therefore never matches old entries.
+ */
+@Component
+public class ClientSecretVerifier {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    private final Map<String, Long> verified = new ConcurrentHashMap<>();
+    private final SecretKeySpec hmacKey;
+    private final long ttlMillis;
+    private final int maxSize;
+
+    public ClientSecretVerifier(@Value("${secret-cache.ttl-seconds}") long ttlSeconds,
+                                @Value("${secret-cache.max-size}") int maxSize) {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.hmacKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.maxSize = maxSize;
+    }
+
+    public boolean matches(String clientSecret, OpenIDClient openIDClient) {
+        String storedSecret = openIDClient.getSecret();
+        if (clientSecret == null || storedSecret == null) {
+            return false;
+        }
+        if (maxSize <= 0) {
+            return passwordEncoder.matches(clientSecret, storedSecret);
+        }
+        String key = cacheKey(openIDClient.getClientId(), clientSecret, storedSecret);
+        long now = System.currentTimeMillis();
+        Long expiresAt = verified.get(key);
+        if (expiresAt != null && expiresAt > now) {
+            return true;
+        }
+        if (!passwordEncoder.matches(clientSecret, storedSecret)) {
+            return false;
+        }
+        if (verified.size() >= maxSize) {
+            verified.values().removeIf(expiry -> expiry <= now);
+        }
+        if (verified.size() < maxSize) {
+            verified.put(key, now + ttlMillis);
+        }
+        return true;
+    }
+
+    int size() {
+        return verified.size();
+    }
+
+    private String cacheKey(String clientId, String clientSecret, String storedSecret) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(hmacKey);
+            mac.update(clientId.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(clientSecret.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(storedSecret.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+
+import java.security.Key;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parsed JWK set of a client with the key selectors and JWT processors built from it, one per signing algorithm
+ * used by the client. Immutable apart from the lazily built selectors and processors, which are thread-safe, so one
+ * instance is shared by all requests until the keys of the client change. The algorithm is taken from the JWS header
+ * sent by the client, so only signature algorithms are accepted as key of the selectors and processors.
+ */
+class ClientVerifier {
+
+    private final JWKSource<SecurityContext> jwkSource;
+    private final Map<JWSAlgorithm, JWSVerificationKeySelector<SecurityContext>> keySelectors = new ConcurrentHashMap<>();
+    private final Map<JWSAlgorithm, ConfigurableJWTProcessor<SecurityContext>> processors = new ConcurrentHashMap<>();
+
+    ClientVerifier(JWKSet jwkSet) {
+        this.jwkSource = new ImmutableJWKSet<>(jwkSet);
+    }
+
+    /**
+     * Verifies the signature - and the expiration and not before time if present - of the JWT
+     */
+    JWTClaimsSet process(SignedJWT signedJWT) throws BadJOSEException, JOSEException {
+        return processors.computeIfAbsent(signatureAlgorithm(signedJWT.getHeader()), algorithm -> {
+            ConfigurableJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+            jwtProcessor.setJWSKeySelector(keySelector(algorithm));
+            return jwtProcessor;
+        }).process(signedJWT, null);
+    }
+
+    List<Key> selectKeys(JWSHeader header) throws JOSEException {
+        return keySelector(signatureAlgorithm(header)).selectJWSKeys(header, null);
+    }
+
+    /*
+     * Not a BadJOSEException, as re-fetching the keys of the client does not help for an unsupported algorithm
+     */
+    private JWSAlgorithm signatureAlgorithm(JWSHeader header) throws JOSEException {
+        JWSAlgorithm algorithm = header.getAlgorithm();
+        if (!JWSAlgorithm.Family.SIGNATURE.contains(algorithm)) {
+            throw new JOSEException(String.format("Unsupported JWS algorithm %s", algorithm));
+        }
+        return algorithm;
+    }
+
+    private JWSVerificationKeySelector<SecurityContext> keySelector(JWSAlgorithm algorithm) {
+        return keySelectors.computeIfAbsent(algorithm, alg -> new JWSVerificationKeySelector<>(alg, jwkSource));
+    }
+}
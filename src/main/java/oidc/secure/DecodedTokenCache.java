@@ -0,0 +1,111 @@
+package oidc.secure;
+
+import oidc.model.User;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Users decoded from access tokens, keyed by the SHA-256 digest of the access token which is also the ID of the
+ * AccessToken document. An entry expires with the access token and the total size of the entries, approximated by the
+ * length of the decrypted user JSON, is bounded by maxBytes. When the cache is full and there are no expired entries
+ * new users are not cached. The entries are only scanned for expired ones when the earliest expiry has passed, so a
+ * full cache does not cost a scan per miss. The cached users are shared, so callers must not modify them.
+ */
+class DecodedTokenCache {
+
+    private final Map<ByteBuffer, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    //lower bound of the expiry of the entries, might be lower than the actual earliest expiry after removals
+    private final AtomicLong earliestExpiry = new AtomicLong(Long.MAX_VALUE);
+    private final long maxBytes;
+
+    DecodedTokenCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    User get(byte[] accessTokenId, long now) {
+        ByteBuffer key = ByteBuffer.wrap(accessTokenId);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= now) {
+            remove(key, entry);
+            return null;
+        }
+        return entry.user;
+    }
+
+    void put(byte[] accessTokenId, User user, int size, long expiresAt, long now) {
+        if (size > maxBytes || expiresAt <= now) {
+            return;
+        }
+        if (bytes.get() + size > maxBytes) {
+            if (earliestExpiry.get() > now) {
+                return;
+            }
+            removeExpired(now);
+            if (bytes.get() + size > maxBytes) {
+                return;
+            }
+        }
+        Entry previous = entries.put(ByteBuffer.wrap(accessTokenId), new Entry(user, size, expiresAt));
+        bytes.addAndGet(previous == null ? size : size - previous.size);
+        earliestExpiry.accumulateAndGet(expiresAt, Math::min);
+    }
+
+    private void removeExpired(long now) {
+        long earliest = Long.MAX_VALUE;
+        for (Map.Entry<ByteBuffer, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            if (entry.expiresAt <= now) {
+                remove(mapEntry.getKey(), entry);
+            } else {
+                earliest = Math.min(earliest, entry.expiresAt);
+            }
+        }
+        earliestExpiry.set(earliest);
+    }
+
+    void evict(byte[] accessTokenId) {
+        Entry entry = entries.remove(ByteBuffer.wrap(accessTokenId));
+        if (entry != null) {
+            bytes.addAndGet(-entry.size);
+        }
+    }
+
+    void clear() {
+        entries.forEach(this::remove);
+        earliestExpiry.set(Long.MAX_VALUE);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long bytes() {
+        return bytes.get();
+    }
+
+    private void remove(ByteBuffer key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            bytes.addAndGet(-entry.size);
+        }
+    }
+
+    private static class Entry {
+
+        private final User user;
+        private final int size;
+        private final long expiresAt;
+
+        private Entry(User user, int size, long expiresAt) {
+            this.user = user;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
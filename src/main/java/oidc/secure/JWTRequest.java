@@ -3,16 +3,10 @@ package oidc.secure;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.RSAKey;
-import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
 import com.nimbusds.jose.proc.BadJOSEException;
-import com.nimbusds.jose.proc.JWSKeySelector;
-import com.nimbusds.jose.proc.JWSVerificationKeySelector;
-import com.nimbusds.jose.util.JSONObjectUtils;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
-import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
-import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import com.nimbusds.oauth2.sdk.ResponseMode;
 import com.nimbusds.oauth2.sdk.ResponseType;
 import com.nimbusds.oauth2.sdk.Scope;
@@ -28,14 +22,13 @@ import com.nimbusds.openid.connect.sdk.Prompt;
 import com.nimbusds.openid.connect.sdk.claims.ACR;
 import oidc.exceptions.UnsupportedJWTException;
 import oidc.model.OpenIDClient;
-import org.apache.commons.io.IOUtils;
-import org.springframework.util.StringUtils;
+import org.springframework.stereotype.Component;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
@@ -44,11 +37,22 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-import static java.nio.charset.Charset.defaultCharset;
-
+/**
+ * Merges the claims of a signed request object - passed by value or fetched from the request_uri - into the
+ * authentication request after verifying the signature with the keys of the client.
+ */
+@Component
 public class JWTRequest {
 
-    public static AuthenticationRequest parse(AuthenticationRequest authenticationRequest, OpenIDClient openIDClient)
+    private final ClientJWKSetCache clientJWKSetCache;
+    private final OutboundFetcher outboundFetcher;
+
+    public JWTRequest(ClientJWKSetCache clientJWKSetCache, OutboundFetcher outboundFetcher) {
+        this.clientJWKSetCache = clientJWKSetCache;
+        this.outboundFetcher = outboundFetcher;
+    }
+
+    public AuthenticationRequest parse(AuthenticationRequest authenticationRequest, OpenIDClient openIDClient)
             throws CertificateException, JOSEException, IOException, BadJOSEException, ParseException, com.nimbusds.oauth2.sdk.ParseException, URISyntaxException {
         if (!openIDClient.certificateSpecified()) {
             throw new UnsupportedJWTException(String.format("RP %s does not have a certificate, url or discovery url. ", openIDClient.getClientId()));
@@ -62,26 +66,26 @@ public class JWTRequest {
             throw new UnsupportedJWTException("JWT is not a SignedJWT, but " + jwt.getClass().getName());
         }
         SignedJWT signedJWT = (SignedJWT) jwt;
-        String signingCertificate;
-        if (StringUtils.hasText(openIDClient.getSigningCertificateUrl())) {
-            signingCertificate = read(openIDClient.getSigningCertificateUrl());
-        } else if (StringUtils.hasText(openIDClient.getSigningCertificate())) {
-            signingCertificate = openIDClient.getSigningCertificate();
-        } else {
-            String discovery = read(openIDClient.getDiscoveryUrl());
-            String jwksUri = (String) JSONObjectUtils.parse(discovery).get("jwks_uri");
-            signingCertificate = read(jwksUri);
+        JWTClaimsSet claimsSet;
+        try {
+            claimsSet = clientJWKSetCache.getVerifier(openIDClient, false).process(signedJWT);
+        } catch (BadJOSEException e) {
+            //the RP may have rolled over its keys, so retry once with re-fetched keys
+            claimsSet = clientJWKSetCache.getVerifier(openIDClient, true).process(signedJWT);
         }
-        JWTClaimsSet claimsSet = claimsSet(jwkSet(signingCertificate), signedJWT);
 
         return mergeAuthenticationRequest(authenticationRequest, claimsSet.getClaims());
     }
 
-    private static String read(String url) throws IOException {
-        return IOUtils.toString(new URL(url).openStream(), defaultCharset());
+    private String read(String url) throws IOException {
+        OutboundFetcher.Response response = outboundFetcher.fetchRequestURI(url);
+        if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+            throw new IOException(String.format("Unexpected status %s fetching %s", response.getStatus(), url));
+        }
+        return response.getBody();
     }
 
-    private static JWKSet jwkSet(String signingCertificate) throws CertificateException, JOSEException, ParseException {
+    static JWKSet jwkSet(String signingCertificate) throws CertificateException, JOSEException, ParseException {
         if (signingCertificate.trim().startsWith("{") && signingCertificate.contains("keys")) {
             return JWKSet.parse(signingCertificate);
         }
@@ -92,14 +96,6 @@ public class JWTRequest {
         return new JWKSet(RSAKey.parse(cert));
     }
 
-    @SuppressWarnings("unchecked")
-    private static JWTClaimsSet claimsSet(JWKSet jwkSet, SignedJWT signedJWT) throws BadJOSEException, JOSEException {
-        ConfigurableJWTProcessor jwtProcessor = new DefaultJWTProcessor();
-        JWSKeySelector keySelector = new JWSVerificationKeySelector(signedJWT.getHeader().getAlgorithm(), new ImmutableJWKSet(jwkSet));
-        jwtProcessor.setJWSKeySelector(keySelector);
-        return jwtProcessor.process(signedJWT, null);
-    }
-
     private static AuthenticationRequest mergeAuthenticationRequest(AuthenticationRequest authenticationRequest, Map<String, Object> claims) throws com.nimbusds.oauth2.sdk.ParseException, URISyntaxException {
         return new AuthenticationRequest(
                 authenticationRequest.getEndpointURI(),
@@ -1,19 +1,28 @@
 package oidc.secure;
 
+import com.nimbusds.jose.Algorithm;
 import oidc.model.AccessToken;
+import oidc.model.OpenIDClient;
+import oidc.model.RefreshToken;
 import oidc.model.SigningKey;
 import oidc.model.SymmetricKey;
 import oidc.repository.SequenceRepository;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Component
@@ -67,24 +76,47 @@ public class KeyRollover {
     }
 
     private void cleanUpSigningKeys() {
-        List<String> signingKeyValues = mongoTemplate.findDistinct("signingKeyId", AccessToken.class, String.class);
-        signingKeyValues.add(String.format("key_%s", sequenceRepository.currentSigningKeyId()));
-
-        Query query = Query.query(Criteria.where("keyId").not().in(signingKeyValues));
+        Set<String> signingKeyValues = new HashSet<>(mongoTemplate.findDistinct("signingKeyId", AccessToken.class, String.class));
+        signingKeyValues.addAll(tokenGenerator.getCurrentSigningKeyIds());
+
+        //ID tokens are signed with the key of the algorithm of the client and are not referenced by any access token.
+        //Keep all keys created since the cutoff and - per algorithm - the key that was still current at the cutoff
+        Date cutoff = new Date(System.currentTimeMillis() - maxTokenValiditySeconds() * 1000L);
+        Map<String, Algorithm> algorithms = new HashMap<>();
+        tokenGenerator.getAllPublicKeys().forEach(jwk -> algorithms.put(jwk.getKeyID(), jwk.getAlgorithm()));
+        Set<Algorithm> seen = new HashSet<>();
+        mongoTemplate.find(Query.query(Criteria.where("created").lte(cutoff)).with(Sort.by(Sort.Direction.DESC, "created")), SigningKey.class)
+                .stream()
+                .filter(signingKey -> seen.add(algorithms.get(signingKey.getKeyId())))
+                .forEach(signingKey -> signingKeyValues.add(signingKey.getKeyId()));
+
+        Query query = Query.query(Criteria.where("keyId").not().in(signingKeyValues).and("created").lte(cutoff));
         List<SigningKey> signingKeys = mongoTemplate.findAllAndRemove(query, SigningKey.class);
 
         List<String> deleted = signingKeys.stream().map(SigningKey::getKeyId).collect(Collectors.toList());
-        LOG.info("Deleted signing keys that are no longer referenced by access_tokens: " + String.join(", ", deleted));
+        LOG.info("Deleted signing keys that are no longer referenced by access_tokens or recent ID tokens: " + String.join(", ", deleted));
+    }
+
+    /**
+     * Access and ID tokens both expire after the access token validity of the client
+     */
+    private long maxTokenValiditySeconds() {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "accessTokenValidity")).limit(1);
+        query.fields().include("accessTokenValidity");
+        OpenIDClient client = mongoTemplate.findOne(query, OpenIDClient.class);
+        return client == null ? 0L : client.getAccessTokenValidity();
     }
 
     private void cleanUpSymmetricKeys() {
         List<String> symmetricKeyValues = mongoTemplate.findDistinct("symmetricKeyId", SigningKey.class, String.class);
+        symmetricKeyValues.addAll(mongoTemplate.findDistinct("claimKeyId", AccessToken.class, String.class));
+        symmetricKeyValues.addAll(mongoTemplate.findDistinct("claimKeyId", RefreshToken.class, String.class));
         symmetricKeyValues.add(sequenceRepository.currentSymmetricKeyId());
 
         Query query = Query.query(Criteria.where("keyId").not().in(symmetricKeyValues));
         List<SymmetricKey> symmetricKeys = mongoTemplate.findAllAndRemove(query, SymmetricKey.class);
 
         List<String> deleted = symmetricKeys.stream().map(SymmetricKey::getKeyId).collect(Collectors.toList());
-        LOG.info("Deleted symmetric keys that are no longer referenced by signing keys: " + String.join(", ", deleted));
+        LOG.info("Deleted symmetric keys that are no longer referenced by signing keys or tokens: " + String.join(", ", deleted));
     }
 }
@@ -0,0 +1,86 @@
+package oidc.secure;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import oidc.model.Sequence;
+import oidc.repository.SequenceRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Listens to the change stream of the sequences collection and reloads the signing or symmetric keys as soon as the
+ * node responsible for the key rollover has updated the current key ID. Change streams require a replica set, so this
+ * is opt-in. The periodic check in {@link TokenGenerator} remains the fallback when a notification is missed.
+ */
+@Component
+public class KeyRolloverListener implements ApplicationListener<ApplicationReadyEvent>, DisposableBean {
+
+    private static final Log LOG = LogFactory.getLog(KeyRolloverListener.class);
+
+    private TokenGenerator tokenGenerator;
+    private MongoTemplate mongoTemplate;
+    private boolean changeStreamEnabled;
+    private MessageListenerContainer container;
+
+    public KeyRolloverListener(TokenGenerator tokenGenerator,
+                               MongoTemplate mongoTemplate,
+                               @Value("${keys.change-stream-enabled}") boolean changeStreamEnabled) {
+        this.tokenGenerator = tokenGenerator;
+        this.mongoTemplate = mongoTemplate;
+        this.changeStreamEnabled = changeStreamEnabled;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (!changeStreamEnabled || container != null) {
+            return;
+        }
+        container = new DefaultMessageListenerContainer(mongoTemplate);
+        ChangeStreamRequest<Document> request = ChangeStreamRequest.builder(this::onMessage)
+                .collection(mongoTemplate.getCollectionName(Sequence.class))
+                .build();
+        container.register(request, Document.class, e -> LOG.error("Error in the sequences change stream", e));
+        container.start();
+        LOG.info("Listening to the sequences change stream for key rollovers");
+    }
+
+    void onMessage(Message<ChangeStreamDocument<Document>, Document> message) {
+        ChangeStreamDocument<Document> raw = message.getRaw();
+        BsonDocument documentKey = raw != null ? raw.getDocumentKey() : null;
+        BsonValue id = documentKey != null ? documentKey.get("_id") : null;
+        if (id == null || !id.isString()) {
+            return;
+        }
+        String sequence = id.asString().getValue();
+        try {
+            if (SequenceRepository.SIGNING_KEY_ID.equals(sequence)) {
+                tokenGenerator.refreshSigningKeys();
+                LOG.info("Reloaded signing keys after rollover notification");
+            } else if (SequenceRepository.SYMMETRIC_KEY_ID.equals(sequence)) {
+                tokenGenerator.refreshSymmetricKeys();
+                LOG.info("Reloaded symmetric keys after rollover notification");
+            }
+        } catch (Exception e) {
+            LOG.error("Exception reloading keys after rollover notification", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (container != null) {
+            container.stop();
+        }
+    }
+}
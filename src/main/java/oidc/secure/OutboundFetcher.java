@@ -0,0 +1,311 @@
+package oidc.secure;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * All outbound HTTP GET requests to RP's - request_uri's, certificates, JWK sets and discovery documents. The requests
+ * are executed on bounded pools, so at most pool-size connections are open and request threads fail fast instead of
+ * queueing up behind a slow RP. The request_uri's come from unauthenticated authorization requests and have their own
+ * pool, so slow request_uri's can not starve the fetches of client keys. Every request is bounded by the connect and
+ * read timeouts and the maximum response size. After failure-threshold consecutive failures for a host the circuit
+ * opens and requests to that host fail immediately for open-seconds, after which one trial request decides whether the
+ * circuit closes again. The circuit breakers of the least recently used hosts are discarded beyond a maximum number of
+ * hosts. The requests are timed in the oidc.outbound.requests metric, tagged with the purpose and the outcome.
+ */
+@Component
+public class OutboundFetcher implements DisposableBean {
+
+    private static final Log LOG = LogFactory.getLog(OutboundFetcher.class);
+
+    private static final int MAX_CIRCUIT_BREAKERS = 1024;
+    private static final String CLIENT_KEYS = "client_keys";
+    private static final String REQUEST_URI = "request_uri";
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxResponseBytes;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor requestURIExecutor;
+    private final Map<String, CircuitBreaker> circuitBreakers = Collections.synchronizedMap(
+            new LinkedHashMap<String, CircuitBreaker>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CircuitBreaker> eldest) {
+                    return size() > MAX_CIRCUIT_BREAKERS;
+                }
+            });
+
+    public OutboundFetcher(@Value("${outbound.connect-timeout-millis}") int connectTimeoutMillis,
+                           @Value("${outbound.read-timeout-millis}") int readTimeoutMillis,
+                           @Value("${outbound.max-response-bytes}") int maxResponseBytes,
+                           @Value("${outbound.pool-size}") int poolSize,
+                           @Value("${outbound.request-uri-pool-size}") int requestURIPoolSize,
+                           @Value("${outbound.circuit-breaker.failure-threshold}") int failureThreshold,
+                           @Value("${outbound.circuit-breaker.open-seconds}") long openSeconds,
+                           MeterRegistry meterRegistry) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxResponseBytes = maxResponseBytes;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openSeconds * 1000L;
+        this.meterRegistry = meterRegistry;
+        this.executor = executor(poolSize, "outbound-fetcher-");
+        this.requestURIExecutor = executor(requestURIPoolSize, "outbound-request-uri-fetcher-");
+    }
+
+    private static ThreadPoolExecutor executor(int poolSize, String threadNamePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(poolSize * 4), runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public Response fetch(String url) throws IOException {
+        return fetch(url, Collections.emptyMap());
+    }
+
+    /**
+     * Blocks until the response is read, at most the connect timeout plus twice the read timeout
+     */
+    public Response fetch(String url, Map<String, String> requestHeaders) throws IOException {
+        return get(fetchAsync(url, requestHeaders), url);
+    }
+
+    /**
+     * Fetches the request_uri of an authorization request on the separate pool for request_uri's
+     */
+    public Response fetchRequestURI(String url) throws IOException {
+        return get(submit(url, Collections.emptyMap(), requestURIExecutor, REQUEST_URI), url);
+    }
+
+    public CompletableFuture<Response> fetchAsync(String url, Map<String, String> requestHeaders) {
+        return submit(url, requestHeaders, executor, CLIENT_KEYS);
+    }
+
+    private Response get(CompletableFuture<Response> future, String url) throws IOException {
+        try {
+            return future.get(maxDurationMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted fetching %s", url), e);
+        } catch (TimeoutException e) {
+            throw new IOException(String.format("Timeout fetching %s", url), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private CompletableFuture<Response> submit(String url, Map<String, String> requestHeaders, ThreadPoolExecutor executor,
+                                               String purpose) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        URL target;
+        try {
+            target = new URL(url);
+            if (!"https".equals(target.getProtocol()) && !"http".equals(target.getProtocol())) {
+                throw new IOException(String.format("Unsupported protocol in %s", url));
+            }
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        String host = target.getHost();
+        //failing request_uri's must not open the circuit for the client keys on the same host
+        CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(purpose + " " + host, key -> new CircuitBreaker());
+        if (!circuitBreaker.allowRequest(System.currentTimeMillis())) {
+            record(purpose, "circuit_open", 0L);
+            future.completeExceptionally(new IOException(String.format("Circuit open for host %s, not fetching %s", host, url)));
+            return future;
+        }
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    Response response = doFetch(target, requestHeaders);
+                    circuitBreaker.success();
+                    record(purpose, "success", System.nanoTime() - start);
+                    future.complete(response);
+                } catch (IOException | RuntimeException e) {
+                    if (circuitBreaker.failure(System.currentTimeMillis())) {
+                        LOG.warn(String.format("Opening circuit for host %s after %s consecutive failures", host, failureThreshold));
+                    }
+                    record(purpose, "error", System.nanoTime() - start);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            circuitBreaker.release();
+            record(purpose, "rejected", 0L);
+            future.completeExceptionally(new IOException(String.format("Too many outbound requests, not fetching %s", url), e));
+        }
+        return future;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        requestURIExecutor.shutdownNow();
+    }
+
+    private Response doFetch(URL url, Map<String, String> requestHeaders) throws IOException {
+        long deadline = System.currentTimeMillis() + maxDurationMillis();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        requestHeaders.forEach(connection::setRequestProperty);
+        try {
+            int status = connection.getResponseCode();
+            if (connection.getContentLengthLong() > maxResponseBytes) {
+                throw new IOException(String.format("Response of %s exceeds %s bytes", url, maxResponseBytes));
+            }
+            InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            //the body is read completely, so the connection can be reused
+            String body = inputStream == null ? "" : read(inputStream, url, deadline);
+            if (status >= 500) {
+                throw new IOException(String.format("Unexpected status %s fetching %s", status, url));
+            }
+            return new Response(status, body, connection);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private String read(InputStream inputStream, URL url, long deadline) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > maxResponseBytes) {
+                    throw new IOException(String.format("Response of %s exceeds %s bytes", url, maxResponseBytes));
+                }
+                //the read timeout is per read, this prevents a slow RP from trickling the response
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException(String.format("Timeout reading %s", url));
+                }
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        }
+    }
+
+    long maxDurationMillis() {
+        return connectTimeoutMillis + 2L * readTimeoutMillis;
+    }
+
+    private void record(String purpose, String outcome, long nanos) {
+        //not tagged with the host, as the hosts of request_uri's are chosen by anyone calling the authorize endpoint
+        Timer.builder("oidc.outbound.requests")
+                .tag("purpose", purpose)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public static class Response {
+
+        private final int status;
+        private final String body;
+        private final String etag;
+        private final String cacheControl;
+        private final long expires;
+
+        private Response(int status, String body, HttpURLConnection connection) {
+            this.status = status;
+            this.body = body;
+            this.etag = connection.getHeaderField("ETag");
+            this.cacheControl = connection.getHeaderField("Cache-Control");
+            this.expires = connection.getHeaderFieldDate("Expires", -1L);
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getCacheControl() {
+            return cacheControl;
+        }
+
+        /**
+         * The Expires header in epoch millis or -1 if absent
+         */
+        public long getExpires() {
+            return expires;
+        }
+    }
+
+    private class CircuitBreaker {
+
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicBoolean trialInProgress = new AtomicBoolean();
+        private volatile long openUntil;
+
+        private boolean allowRequest(long now) {
+            if (failures.get() < failureThreshold) {
+                return true;
+            }
+            //half open, only one trial request at a time
+            return now >= openUntil && trialInProgress.compareAndSet(false, true);
+        }
+
+        private void success() {
+            failures.set(0);
+            trialInProgress.set(false);
+        }
+
+        private boolean failure(long now) {
+            boolean opened = failures.incrementAndGet() >= failureThreshold;
+            if (opened) {
+                openUntil = now + openMillis;
+            }
+            trialInProgress.set(false);
+            return opened;
+        }
+
+        private void release() {
+            trialInProgress.set(false);
+        }
+    }
+}
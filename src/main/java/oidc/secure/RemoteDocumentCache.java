@@ -0,0 +1,151 @@
+package oidc.secure;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remote documents - certificates, JWK sets and discovery documents of clients - keyed by URL. The lifetime of a
+ * document is taken from the Cache-Control max-age or Expires header, bounded by minLifetimeMillis and maxLifetimeMillis,
+ * and expired documents are revalidated with their ETag. In the last quarter of its lifetime a document is refreshed in
+ * the background while the cached document is returned. Concurrent fetches of the same URL are coalesced into one and
+ * when a fetch fails the cached document, if any, is returned.
+ */
+class RemoteDocumentCache {
+
+    private static final Log LOG = LogFactory.getLog(RemoteDocumentCache.class);
+
+    private static final Pattern MAX_AGE = Pattern.compile("max-age\\s*=\\s*\"?(\\d+)");
+
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Document>> inFlight = new ConcurrentHashMap<>();
+    private final OutboundFetcher outboundFetcher;
+    private final long minLifetimeMillis;
+    private final long maxLifetimeMillis;
+
+    RemoteDocumentCache(OutboundFetcher outboundFetcher, long minLifetimeMillis, long maxLifetimeMillis) {
+        this.outboundFetcher = outboundFetcher;
+        this.minLifetimeMillis = minLifetimeMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+    }
+
+    /**
+     * Returns the cached document, unless it is expired or forceRefresh is true and the document is older than the
+     * minimum lifetime, e.g. when a signature does not verify with the cached keys.
+     */
+    String get(String url, boolean forceRefresh) throws IOException {
+        long now = System.currentTimeMillis();
+        Document document = documents.get(url);
+        if (document != null) {
+            boolean refetch = forceRefresh && now - document.fetchedAt >= minLifetimeMillis;
+            if (!refetch && now < document.refreshAt) {
+                return document.body;
+            }
+            if (!refetch && now < document.expiresAt) {
+                //failures are logged, the next lookup will try again
+                load(url);
+                return document.body;
+            }
+        }
+        try {
+            return load(url).get(outboundFetcher.maxDurationMillis(), TimeUnit.MILLISECONDS).body;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted fetching %s", url), e);
+        } catch (ExecutionException | TimeoutException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (document == null) {
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            return document.body;
+        }
+    }
+
+    int size() {
+        return documents.size();
+    }
+
+    private CompletableFuture<Document> load(String url) {
+        CompletableFuture<Document> future = new CompletableFuture<>();
+        CompletableFuture<Document> existing = inFlight.putIfAbsent(url, future);
+        if (existing != null) {
+            return existing;
+        }
+        Document cached = documents.get(url);
+        Map<String, String> requestHeaders = cached != null && cached.etag != null ?
+                Collections.singletonMap("If-None-Match", cached.etag) : Collections.emptyMap();
+        outboundFetcher.fetchAsync(url, requestHeaders).whenComplete((response, throwable) -> {
+            try {
+                if (throwable != null) {
+                    throw throwable instanceof IOException ? (IOException) throwable : new IOException(throwable);
+                }
+                Document document = document(url, response, cached);
+                documents.put(url, document);
+                future.complete(document);
+            } catch (IOException e) {
+                LOG.warn(String.format("Exception fetching %s", url), e);
+                future.completeExceptionally(e);
+            } finally {
+                inFlight.remove(url, future);
+            }
+        });
+        return future;
+    }
+
+    private Document document(String url, OutboundFetcher.Response response, Document cached) throws IOException {
+        long now = System.currentTimeMillis();
+        long lifetime = lifetime(response, now);
+        if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            return new Document(cached.body, cached.etag, now, lifetime);
+        }
+        if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+            throw new IOException(String.format("Unexpected status %s fetching %s", response.getStatus(), url));
+        }
+        return new Document(response.getBody(), response.getEtag(), now, lifetime);
+    }
+
+    private long lifetime(OutboundFetcher.Response response, long now) {
+        long lifetime = maxLifetimeMillis;
+        String cacheControl = response.getCacheControl();
+        if (StringUtils.hasText(cacheControl)) {
+            Matcher matcher = MAX_AGE.matcher(cacheControl);
+            if (matcher.find()) {
+                lifetime = Long.parseLong(matcher.group(1)) * 1000L;
+            } else if (cacheControl.contains("no-cache") || cacheControl.contains("no-store")) {
+                lifetime = 0L;
+            }
+        } else if (response.getExpires() > -1L) {
+            lifetime = response.getExpires() - now;
+        }
+        return Math.min(maxLifetimeMillis, Math.max(minLifetimeMillis, lifetime));
+    }
+
+    private static class Document {
+
+        private final String body;
+        private final String etag;
+        private final long fetchedAt;
+        private final long refreshAt;
+        private final long expiresAt;
+
+        private Document(String body, String etag, long fetchedAt, long lifetime) {
+            this.body = body;
+            this.etag = etag;
+            this.fetchedAt = fetchedAt;
+            this.refreshAt = fetchedAt + lifetime * 3 / 4;
+            this.expiresAt = fetchedAt + lifetime;
+        }
+    }
+}
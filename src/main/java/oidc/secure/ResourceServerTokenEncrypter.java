@@ -0,0 +1,149 @@
+package oidc.secure;
+
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEEncrypter;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.JWEObjectJSON;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.ECDHEncrypter;
+import com.nimbusds.jose.crypto.MultiEncrypter;
+import com.nimbusds.jose.crypto.RSAEncrypter;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import oidc.model.OpenIDClient;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Encrypts the user claims of an access token once for all resource servers, as a JWE in the general JSON
+ * serialization with one recipient per resource server. Only the content key is wrapped per resource server, with its
+ * public key (RSA-OAEP-256 or ECDH-ES+A256KW), so the resource server can read the claims without introspection. The
+ * claims that only one resource server may read are added to its recipient header as a compact JWE (RSA-OAEP-256 or
+ * ECDH-ES with A256GCM). Recipients are identified by the kid of their key, or by its thumbprint if the key has no kid.
+ * The parsed keys are cached per resource server and replaced when the key of the resource server changes.
+ */
+class ResourceServerTokenEncrypter {
+
+    private static final Log LOG = LogFactory.getLog(ResourceServerTokenEncrypter.class);
+
+    private final Map<String, Encrypter> encrypters = new ConcurrentHashMap<>();
+
+    /**
+     * The resource servers with a valid key, in the same order. The others are logged and can still use the introspect
+     * endpoint.
+     */
+    List<OpenIDClient> recipients(List<OpenIDClient> resourceServers) {
+        List<OpenIDClient> recipients = new ArrayList<>();
+        for (OpenIDClient resourceServer : resourceServers) {
+            try {
+                encrypter(resourceServer);
+                recipients.add(resourceServer);
+            } catch (ParseException | JOSEException e) {
+                LOG.warn(String.format("Invalid access token encryption key of resource server %s", resourceServer.getClientId()), e);
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * Returns the general JSON serialization of the JWE. The recipientClaims are keyed by the client ID of the resource
+     * server and only added for the resource servers that have them.
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> encrypt(List<OpenIDClient> recipients, String claimsJson, Map<String, String> recipientClaims)
+            throws ParseException, JOSEException {
+        List<Encrypter> encrypters = new ArrayList<>();
+        for (OpenIDClient recipient : recipients) {
+            encrypters.add(encrypter(recipient));
+        }
+        Map<String, Object> result;
+        if (encrypters.size() == 1) {
+            //the MultiEncrypter drops the header of a single recipient, so its alg and kid go in the protected header
+            Encrypter encrypter = encrypters.get(0);
+            JWEObject jweObject = new JWEObject(new JWEHeader.Builder((JWEAlgorithm) encrypter.recipientKey.getAlgorithm(),
+                    EncryptionMethod.A256GCM).keyID(encrypter.recipientKey.getKeyID()).build(), new Payload(claimsJson));
+            jweObject.encrypt(encrypter.jweEncrypter);
+            result = new JWEObjectJSON(jweObject).toGeneralJSONObject();
+        } else {
+            JWEObjectJSON jweObject = new JWEObjectJSON(new JWEHeader.Builder(EncryptionMethod.A256GCM).build(), new Payload(claimsJson));
+            jweObject.encrypt(new MultiEncrypter(new JWKSet(encrypters.stream().map(encrypter -> encrypter.recipientKey)
+                    .collect(Collectors.toList()))));
+            result = jweObject.toGeneralJSONObject();
+        }
+        //the recipients are in the order of the keys
+        List<Map<String, Object>> recipientObjects = (List<Map<String, Object>>) result.get("recipients");
+        for (int i = 0; i < recipients.size(); i++) {
+            String claims = recipientClaims.get(recipients.get(i).getClientId());
+            if (claims != null) {
+                Encrypter encrypter = encrypters.get(i);
+                JWEObject recipientJWE = new JWEObject(encrypter.header, new Payload(claims));
+                recipientJWE.encrypt(encrypter.jweEncrypter);
+                ((Map<String, Object>) recipientObjects.get(i).computeIfAbsent("header", key -> new LinkedHashMap<>()))
+                        .put("claims", recipientJWE.serialize());
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return encrypters.size();
+    }
+
+    private Encrypter encrypter(OpenIDClient resourceServer) throws ParseException, JOSEException {
+        String key = resourceServer.getAccessTokenEncryptionKey();
+        Encrypter encrypter = encrypters.get(resourceServer.getClientId());
+        if (encrypter == null || !encrypter.key.equals(key)) {
+            encrypter = new Encrypter(key);
+            encrypters.put(resourceServer.getClientId(), encrypter);
+        }
+        return encrypter;
+    }
+
+    private static class Encrypter {
+
+        private final String key;
+        private final JWK recipientKey;
+        private final JWEHeader header;
+        private final JWEEncrypter jweEncrypter;
+
+        private Encrypter(String key) throws ParseException, JOSEException {
+            JWK jwk = JWK.parse(key);
+            JWEAlgorithm algorithm;
+            if (jwk instanceof RSAKey) {
+                algorithm = JWEAlgorithm.RSA_OAEP_256;
+                RSAKey.Builder builder = new RSAKey.Builder(((RSAKey) jwk).toRSAPublicKey()).keyID(jwk.getKeyID());
+                if (jwk.getKeyID() == null) {
+                    builder.keyIDFromThumbprint();
+                }
+                this.recipientKey = builder.algorithm(algorithm).build();
+                this.jweEncrypter = new RSAEncrypter((RSAKey) jwk);
+            } else if (jwk instanceof ECKey) {
+                algorithm = JWEAlgorithm.ECDH_ES;
+                ECKey.Builder builder = new ECKey.Builder(((ECKey) jwk).toPublicJWK()).keyID(jwk.getKeyID());
+                if (jwk.getKeyID() == null) {
+                    builder.keyIDFromThumbprint();
+                }
+                //direct key agreement can not share the content key with other recipients
+                this.recipientKey = builder.algorithm(JWEAlgorithm.ECDH_ES_A256KW).build();
+                this.jweEncrypter = new ECDHEncrypter((ECKey) jwk);
+            } else {
+                throw new JOSEException(String.format("Unsupported access token encryption key type %s", jwk.getKeyType()));
+            }
+            this.key = key;
+            this.header = new JWEHeader.Builder(algorithm, EncryptionMethod.A256GCM).keyID(recipientKey.getKeyID()).build();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package oidc.secure;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the IDs of revoked access tokens. The IDs are SHA-256 hashes, so the bit positions are derived from
+ * the first 16 bytes of the ID with double hashing instead of hashing again. A negative is definite, a positive means
+ * the AccessToken document has to be consulted. Adding is thread-safe, so revocations on this node are visible
+ * immediately without rebuilding the filter. Adding an ID again does not count as an insertion, so the revocations
+ * that are read more than once by the incremental loads do not fill up the filter.
+ */
+class RevocationFilter {
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashFunctions;
+    private final int expectedInsertions;
+    private final AtomicInteger insertions = new AtomicInteger();
+
+    RevocationFilter(int expectedInsertions, double falsePositiveProbability) {
+        long optimalNumBits = (long) Math.ceil(-Math.max(expectedInsertions, 1) * Math.log(falsePositiveProbability)
+                / (Math.log(2) * Math.log(2)));
+        int numLongs = (int) Math.max(1, (optimalNumBits + 63) / 64);
+        this.bits = new AtomicLongArray(numLongs);
+        this.numBits = numLongs * 64L;
+        this.numHashFunctions = (int) Math.max(1, Math.round((double) numBits / Math.max(expectedInsertions, 1) * Math.log(2)));
+        this.expectedInsertions = Math.max(expectedInsertions, 1);
+    }
+
+    void add(byte[] id) {
+        ByteBuffer buffer = ByteBuffer.wrap(id);
+        long hash1 = buffer.getLong(0);
+        long hash2 = buffer.getLong(8);
+        boolean changed = false;
+        for (int i = 0; i < numHashFunctions; i++) {
+            long bitIndex = Math.floorMod(hash1 + i * hash2, numBits);
+            int index = (int) (bitIndex >>> 6);
+            long mask = 1L << bitIndex;
+            long current = bits.get(index);
+            while ((current & mask) == 0) {
+                if (bits.compareAndSet(index, current, current | mask)) {
+                    changed = true;
+                    break;
+                }
+                current = bits.get(index);
+            }
+        }
+        if (changed) {
+            insertions.incrementAndGet();
+        }
+    }
+
+    /**
+     * True if the false positive probability exceeds the one the filter was sized for
+     */
+    boolean isFull() {
+        return insertions.get() >= expectedInsertions;
+    }
+
+    boolean mightContain(byte[] id) {
+        ByteBuffer buffer = ByteBuffer.wrap(id);
+        long hash1 = buffer.getLong(0);
+        long hash2 = buffer.getLong(8);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long bitIndex = Math.floorMod(hash1 + i * hash2, numBits);
+            if ((bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int numHashFunctions() {
+        return numHashFunctions;
+    }
+}
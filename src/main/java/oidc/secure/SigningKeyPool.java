@@ -0,0 +1,78 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Pool of pre-generated signing keys per algorithm, filled by a low priority background thread. A key rollover takes
+ * a key from the pool and only falls back to generating one inline when the pool is empty. The keys have no key ID
+ * yet, this is assigned when the key is promoted.
+ */
+class SigningKeyPool {
+
+    private static final Log LOG = LogFactory.getLog(SigningKeyPool.class);
+
+    private final Function<JWSAlgorithm, JWK> keyGenerator;
+    private final Map<JWSAlgorithm, BlockingQueue<JWK>> pool;
+    private final ExecutorService executorService;
+
+    SigningKeyPool(List<JWSAlgorithm> algorithms, Function<JWSAlgorithm, JWK> keyGenerator, int poolSize) {
+        this.keyGenerator = keyGenerator;
+        this.pool = poolSize > 0 ? algorithms.stream().collect(toMap(algorithm -> algorithm,
+                algorithm -> new ArrayBlockingQueue<>(poolSize))) : null;
+        //at most one fill task running and one waiting, further fill requests are redundant
+        this.executorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(1), runnable -> {
+            Thread thread = new Thread(runnable, "signing-key-pool");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    JWK take(JWSAlgorithm algorithm) {
+        if (pool == null) {
+            return keyGenerator.apply(algorithm);
+        }
+        JWK jwk = pool.get(algorithm).poll();
+        fill();
+        return jwk != null ? jwk : keyGenerator.apply(algorithm);
+    }
+
+    void fill() {
+        if (pool != null) {
+            executorService.execute(this::doFill);
+        }
+    }
+
+    private void doFill() {
+        pool.forEach((algorithm, queue) -> {
+            while (queue.remainingCapacity() > 0) {
+                try {
+                    queue.offer(keyGenerator.apply(algorithm));
+                } catch (RuntimeException e) {
+                    LOG.error("Exception pre-generating signing key for " + algorithm, e);
+                    return;
+                }
+            }
+        });
+    }
+
+    int size(JWSAlgorithm algorithm) {
+        return pool == null ? 0 : pool.get(algorithm).size();
+    }
+}
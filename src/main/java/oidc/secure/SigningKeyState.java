@@ -0,0 +1,41 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.jwk.JWK;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the signing keys. A new instance is created on every (re)load.
+ */
+@Getter
+class SigningKeyState {
+
+    private final Map<JWSAlgorithm, String> currentKeyIds;
+    private final Map<String, JWSSigner> signers;
+    private final Map<String, JWSVerifier> verifiers;
+    private final List<JWK> publicKeys;
+
+    SigningKeyState(Map<JWSAlgorithm, String> currentKeyIds, Map<String, JWSSigner> signers,
+                    Map<String, JWSVerifier> verifiers, List<JWK> publicKeys) {
+        this.currentKeyIds = Collections.unmodifiableMap(new HashMap<>(currentKeyIds));
+        this.signers = Collections.unmodifiableMap(new HashMap<>(signers));
+        this.verifiers = Collections.unmodifiableMap(new HashMap<>(verifiers));
+        this.publicKeys = Collections.unmodifiableList(new ArrayList<>(publicKeys));
+    }
+
+    String getCurrentKeyId(JWSAlgorithm algorithm) {
+        String keyId = currentKeyIds.get(algorithm);
+        if (keyId == null) {
+            throw new IllegalArgumentException(String.format("No signing key for algorithm %s", algorithm));
+        }
+        return keyId;
+    }
+}
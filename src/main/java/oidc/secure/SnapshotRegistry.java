@@ -0,0 +1,122 @@
+package oidc.secure;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds an immutable snapshot of state that is identified by a version stored in Mongo, e.g. the current key ID in
+ * the sequences collection. Readers get the snapshot without any I/O. The version is checked at most once per refresh
+ * interval by one thread - the others keep using the current snapshot - and a changed version results in one reload
+ * regardless of the number of concurrent callers.
+ */
+public class SnapshotRegistry<T> {
+
+    private final Supplier<String> versionSupplier;
+    private final Supplier<T> loader;
+    private final long refreshIntervalMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile Snapshot<T> snapshot;
+    private volatile long lastChecked;
+
+    public SnapshotRegistry(Supplier<String> versionSupplier, Supplier<T> loader, long refreshIntervalMillis) {
+        this.versionSupplier = versionSupplier;
+        this.loader = loader;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    public T get() {
+        Snapshot<T> current = this.snapshot;
+        if (current == null) {
+            return refresh();
+        }
+        if (System.currentTimeMillis() - lastChecked >= refreshIntervalMillis && lock.tryLock()) {
+            try {
+                doRefresh(false);
+            } finally {
+                lock.unlock();
+            }
+            current = this.snapshot;
+        }
+        return current.state;
+    }
+
+    /**
+     * Blocks until the version is checked and the state is reloaded if the version has changed
+     */
+    public T refresh() {
+        return refresh(state -> true);
+    }
+
+    /**
+     * Blocks until the version is checked if the current state - after waiting for any in-flight reload - is still
+     * stale according to the predicate. Used when a lookup in the current state misses, e.g. an unknown key ID.
+     */
+    public T refresh(Predicate<T> stale) {
+        lock.lock();
+        try {
+            Snapshot<T> current = this.snapshot;
+            if (current == null || stale.test(current.state)) {
+                doRefresh(false);
+            }
+            return this.snapshot.state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unconditionally reloads the state, e.g. after a key rollover on this node
+     */
+    public T reload() {
+        lock.lock();
+        try {
+            doRefresh(true);
+            return this.snapshot.state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the state with an update of the current state, e.g. after adding a key on this node, instead of
+     * reloading everything. The version must be the one that corresponds with the updated state.
+     */
+    public T update(String version, UnaryOperator<T> updater) {
+        lock.lock();
+        try {
+            Snapshot<T> current = this.snapshot;
+            if (current == null) {
+                doRefresh(true);
+            } else {
+                this.snapshot = new Snapshot<>(version, updater.apply(current.state));
+                this.lastChecked = System.currentTimeMillis();
+            }
+            return this.snapshot.state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void doRefresh(boolean force) {
+        String version = versionSupplier.get();
+        Snapshot<T> current = this.snapshot;
+        if (force || current == null || !version.equals(current.version)) {
+            this.snapshot = new Snapshot<>(version, loader.get());
+        }
+        this.lastChecked = System.currentTimeMillis();
+    }
+
+    private static class Snapshot<T> {
+
+        private final String version;
+        private final T state;
+
+        private Snapshot(String version, T state) {
+            this.version = version;
+            this.state = state;
+        }
+    }
+}
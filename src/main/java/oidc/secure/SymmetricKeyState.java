@@ -0,0 +1,26 @@
+package oidc.secure;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.KeysetHandle;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the symmetric keys. A new instance is created on every (re)load.
+ */
+@Getter
+class SymmetricKeyState {
+
+    private final String currentKeyId;
+    private final Map<String, KeysetHandle> keysetHandles;
+    private final Map<String, Aead> aeads;
+
+    SymmetricKeyState(String currentKeyId, Map<String, KeysetHandle> keysetHandles, Map<String, Aead> aeads) {
+        this.currentKeyId = currentKeyId;
+        this.keysetHandles = Collections.unmodifiableMap(new HashMap<>(keysetHandles));
+        this.aeads = Collections.unmodifiableMap(new HashMap<>(aeads));
+    }
+}
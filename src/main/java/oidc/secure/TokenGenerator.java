@@ -10,35 +10,52 @@ import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.aead.AeadConfig;
 import com.google.crypto.tink.aead.AeadFactory;
 import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.proto.KeyTemplate;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.JWSSigner;
 import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.Ed25519Signer;
+import com.nimbusds.jose.crypto.Ed25519Verifier;
 import com.nimbusds.jose.crypto.RSASSASigner;
 import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
 import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetKeyPair;
 import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetKeyPairGenerator;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jose.util.JSONObjectUtils;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.oauth2.sdk.ResponseType;
+import com.nimbusds.oauth2.sdk.id.Identifier;
 import com.nimbusds.oauth2.sdk.id.State;
 import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
 import com.nimbusds.openid.connect.sdk.Nonce;
 import com.nimbusds.openid.connect.sdk.claims.AccessTokenHash;
 import com.nimbusds.openid.connect.sdk.claims.CodeHash;
-import com.nimbusds.openid.connect.sdk.claims.StateHash;
+import com.nimbusds.openid.connect.sdk.claims.HashClaim;
 import oidc.endpoints.MapTypeReference;
 import oidc.exceptions.InvalidSignatureException;
+import oidc.model.AccessToken;
 import oidc.model.EncryptedTokenValue;
 import oidc.model.OpenIDClient;
 import oidc.model.SigningKey;
 import oidc.model.SymmetricKey;
+import oidc.model.TokenHash;
 import oidc.model.User;
 import oidc.repository.SequenceRepository;
 import oidc.repository.SigningKeyRepository;
 import oidc.repository.SymmetricKeyRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -53,9 +70,11 @@ import org.springframework.util.StringUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
@@ -69,15 +88,19 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.Charset.defaultCharset;
@@ -87,7 +110,28 @@ import static java.util.stream.Collectors.toMap;
 @SuppressWarnings("unchecked")
 public class TokenGenerator implements MapTypeReference, ApplicationListener<ApplicationStartedEvent> {
 
+    //Used when no signing algorithms are configured in keys.signing-algorithms
     public static final JWSAlgorithm signingAlg = JWSAlgorithm.RS256;
+
+    private static final List<JWSAlgorithm> supportedSigningAlgorithms =
+            Arrays.asList(JWSAlgorithm.RS256, JWSAlgorithm.ES256, JWSAlgorithm.EdDSA);
+
+    //Keysets contain their own key type, so existing symmetric keys remain usable after changing the template
+    private static final Map<String, KeyTemplate> supportedAeadKeyTemplates = new LinkedHashMap<>();
+
+    static {
+        supportedAeadKeyTemplates.put("AES256_GCM", AeadKeyTemplates.AES256_GCM);
+        supportedAeadKeyTemplates.put("AES256_CTR_HMAC_SHA256", AeadKeyTemplates.AES256_CTR_HMAC_SHA256);
+        supportedAeadKeyTemplates.put("CHACHA20_POLY1305", AeadKeyTemplates.CHACHA20_POLY1305);
+    }
+    private static final Log LOG = LogFactory.getLog(TokenGenerator.class);
+
+    //unknown key ID's come from the token, so at most one per interval checks for a rollover on another node
+    private static final long MISS_REFRESH_INTERVAL_MILLIS = 1000L;
+
+    //the encoded JWS header and a signature of a 2048 bit RSA key
+    private static final int JWS_OVERHEAD_BYTES = 512;
+
     public static final Instant instant = Instant.parse("2100-01-01T00:00:00.00Z");
 
     private static char[] DEFAULT_CODEC = "1234567890ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
@@ -97,21 +141,27 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
 
     private String issuer;
 
-    private Map<String, JWSSigner> signers;
+    private List<JWSAlgorithm> signingAlgorithms;
 
-    private Map<String, JWSVerifier> verifiers;
+    private KeyTemplate aeadKeyTemplate;
 
-    private String currentSigningKeyId;
+    private SnapshotRegistry<SigningKeyState> signingKeys;
 
-    private List<RSAKey> publicKeys;
+    private SigningKeyPool signingKeyPool;
 
     private byte[] associatedData;
 
-    private KeysetHandle primaryKeysetHandle;
+    private Aead primaryAead;
+
+    private SnapshotRegistry<SymmetricKeyState> symmetricKeys;
 
-    private Map<String, KeysetHandle> keysetHandleMap;
+    private final AtomicLong lastSigningKeyMissRefresh = new AtomicLong();
 
-    private String currentSymmetricKeyId;
+    private final AtomicLong lastSymmetricKeyMissRefresh = new AtomicLong();
+
+    private DecodedTokenCache decodedAccessTokens;
+
+    private ResourceServerTokenEncrypter resourceServerTokenEncrypter = new ResourceServerTokenEncrypter();
 
     private ObjectMapper objectMapper;
 
@@ -127,12 +177,23 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
 
     private String defaultAcrValue;
 
+    private int maxEmbeddedResourceServers;
+
+    private int maxAccessTokenBytes;
+
     @Autowired
     public TokenGenerator(@Value("${spring.security.saml2.service-provider.entity-id}") String issuer,
                           @Value("${secret_key_set_path}") Resource secretKeySetPath,
                           @Value("${associated_data}") String associatedData,
                           @Value("${openid_configuration_path}") Resource configurationPath,
                           @Value("${default_acr_value}") String defaultAcrValue,
+                          @Value("${keys.refresh-interval-seconds}") long keyRefreshIntervalSeconds,
+                          @Value("${keys.signing-algorithms}") String signingAlgorithms,
+                          @Value("${keys.pool-size}") int keyPoolSize,
+                          @Value("${keys.aead-template}") String aeadTemplate,
+                          @Value("${token-cache.max-bytes}") long tokenCacheMaxBytes,
+                          @Value("${access-token.max-embedded-resource-servers}") int maxEmbeddedResourceServers,
+                          @Value("${access-token.max-bytes}") int maxAccessTokenBytes,
                           ObjectMapper objectMapper,
                           SigningKeyRepository signingKeyRepository,
                           SequenceRepository sequenceRepository,
@@ -149,49 +210,145 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
         this.objectMapper = objectMapper;
         this.clock = environment.acceptsProfiles(Profiles.of("dev")) ? Clock.fixed(instant, ZoneId.systemDefault()) : Clock.systemDefaultZone();
 
-        this.primaryKeysetHandle = CleartextKeysetHandle.read(JsonKeysetReader.withInputStream(secretKeySetPath.getInputStream()));
+        KeysetHandle primaryKeysetHandle = CleartextKeysetHandle.read(JsonKeysetReader.withInputStream(secretKeySetPath.getInputStream()));
+        this.primaryAead = AeadFactory.getPrimitive(primaryKeysetHandle);
         this.associatedData = associatedData.getBytes(defaultCharset());
 
         Map<String, Object> wellKnownConfiguration = objectMapper.readValue(configurationPath.getInputStream(), mapTypeReference);
         this.acrValuesSupported = (List<String>) wellKnownConfiguration.get("acr_values_supported");
         this.defaultAcrValue = defaultAcrValue;
 
+        this.signingAlgorithms = parseSigningAlgorithms(signingAlgorithms);
+        this.aeadKeyTemplate = parseAeadKeyTemplate(aeadTemplate);
+        this.signingKeyPool = new SigningKeyPool(this.signingAlgorithms, this::generateSigningKey, keyPoolSize);
+        this.decodedAccessTokens = new DecodedTokenCache(tokenCacheMaxBytes);
+        this.maxEmbeddedResourceServers = maxEmbeddedResourceServers;
+        this.maxAccessTokenBytes = maxAccessTokenBytes;
+
+        long keyRefreshIntervalMillis = keyRefreshIntervalSeconds * 1000L;
+        this.signingKeys = new SnapshotRegistry<>(sequenceRepository::currentSigningKeyId, this::loadSigningKeys, keyRefreshIntervalMillis);
+        this.symmetricKeys = new SnapshotRegistry<>(sequenceRepository::currentSymmetricKeyId, this::loadSymmetricKeys, keyRefreshIntervalMillis);
     }
 
     @Override
     public void onApplicationEvent(ApplicationStartedEvent event) {
         //we need to run this after any possible mongo migrations
-        initializeSymmetricKeys();
-        initializeSigningKeys();
+        symmetricKeys.reload();
+        signingKeys.reload();
+        signingKeyPool.fill();
     }
 
-    private void initializeSigningKeys() {
-        List<RSAKey> rsaKeys = this.signingKeyRepository.findAllByOrderByCreatedDesc().stream()
-                .filter(signingKey -> StringUtils.hasText(signingKey.getSymmetricKeyId()))
-                .map(this::parseEncryptedRsaKey)
+    private List<JWSAlgorithm> parseSigningAlgorithms(String signingAlgorithms) {
+        List<JWSAlgorithm> algorithms = Arrays.stream(StringUtils.commaDelimitedListToStringArray(signingAlgorithms))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .map(JWSAlgorithm::parse)
+                .distinct()
                 .collect(Collectors.toList());
+        algorithms.forEach(algorithm -> {
+            if (!supportedSigningAlgorithms.contains(algorithm)) {
+                throw new IllegalArgumentException(String.format("Unsupported signing algorithm %s. Supported are %s",
+                        algorithm, supportedSigningAlgorithms));
+            }
+        });
+        return algorithms.isEmpty() ? Collections.singletonList(signingAlg) : algorithms;
+    }
 
-        if (rsaKeys.isEmpty()) {
-            SigningKey signingKey = this.generateEncryptedRsaKey();
-            this.signingKeyRepository.save(signingKey);
-            RSAKey rsaKey = this.parseEncryptedRsaKey(signingKey);
-            rsaKeys = Collections.singletonList(rsaKey);
+    private KeyTemplate parseAeadKeyTemplate(String aeadTemplate) {
+        KeyTemplate keyTemplate = supportedAeadKeyTemplates.get(aeadTemplate.trim());
+        if (keyTemplate == null) {
+            throw new IllegalArgumentException(String.format("Unsupported AEAD template %s. Supported are %s",
+                    aeadTemplate, supportedAeadKeyTemplates.keySet()));
         }
+        return keyTemplate;
+    }
 
-        this.publicKeys = rsaKeys.stream().map(RSAKey::toPublicJWK).collect(Collectors.toList());
-        this.currentSigningKeyId = rsaKeys.get(0).getKeyID();
-        this.signers = rsaKeys.stream().collect(toMap(JWK::getKeyID, this::createRSASigner));
-        this.verifiers = rsaKeys.stream().collect(toMap(JWK::getKeyID, this::createRSAVerifier));
+    public KeyTemplate getAeadKeyTemplate() {
+        return aeadKeyTemplate;
     }
 
+    private SigningKeyState loadSigningKeys() {
+        List<JWK> jwks = new ArrayList<>(this.signingKeyRepository.findAllByOrderByCreatedDesc().stream()
+                .filter(signingKey -> StringUtils.hasText(signingKey.getSymmetricKeyId()))
+                .map(this::parseEncryptedSigningKey)
+                .collect(Collectors.toList()));
+
+        //keys are ordered by creation date, so the first key of each algorithm is the current one
+        Map<JWSAlgorithm, String> currentKeyIds = new HashMap<>();
+        jwks.forEach(jwk -> currentKeyIds.putIfAbsent(algorithm(jwk), jwk.getKeyID()));
+
+        SigningKeyState signingKeyState = new SigningKeyState(
+                currentKeyIds,
+                jwks.stream().collect(toMap(JWK::getKeyID, this::createSigner)),
+                jwks.stream().collect(toMap(JWK::getKeyID, this::createVerifier)),
+                jwks.stream().map(JWK::toPublicJWK).collect(Collectors.toList()));
+
+        List<JWSAlgorithm> missingAlgorithms = this.signingAlgorithms.stream()
+                .filter(algorithm -> !currentKeyIds.containsKey(algorithm))
+                .collect(Collectors.toList());
+        if (missingAlgorithms.isEmpty()) {
+            return signingKeyState;
+        }
+        List<JWK> newKeys = this.generateSigningKeys(missingAlgorithms);
+        this.saveSigningKeys(newKeys);
+        return addSigningKeys(signingKeyState, newKeys);
+    }
+
+    /**
+     * Promotes a pre-generated signing key for each configured algorithm and returns the one for the default algorithm.
+     * The new keys are added to the current state, the existing keys are not decrypted again.
+     */
     public SigningKey rolloverSigningKeys() {
-        SigningKey signingKey = this.generateEncryptedRsaKey();
-        this.signingKeyRepository.save(signingKey);
-        this.initializeSigningKeys();
-        return signingKey;
+        List<JWK> newKeys = this.generateSigningKeys(this.signingAlgorithms);
+        List<SigningKey> signingKeys = this.saveSigningKeys(newKeys);
+        this.signingKeys.update(signingKeys.get(0).getKeyId(), signingKeyState -> addSigningKeys(signingKeyState, newKeys));
+        return signingKeys.get(0);
+    }
+
+    private SigningKeyState addSigningKeys(SigningKeyState signingKeyState, List<JWK> newKeys) {
+        Map<JWSAlgorithm, String> currentKeyIds = new HashMap<>(signingKeyState.getCurrentKeyIds());
+        Map<String, JWSSigner> signers = new HashMap<>(signingKeyState.getSigners());
+        Map<String, JWSVerifier> verifiers = new HashMap<>(signingKeyState.getVerifiers());
+        List<JWK> publicKeys = new ArrayList<>();
+        newKeys.forEach(jwk -> {
+            currentKeyIds.put(algorithm(jwk), jwk.getKeyID());
+            signers.put(jwk.getKeyID(), createSigner(jwk));
+            verifiers.put(jwk.getKeyID(), createVerifier(jwk));
+            publicKeys.add(jwk.toPublicJWK());
+        });
+        publicKeys.addAll(signingKeyState.getPublicKeys());
+        return new SigningKeyState(currentKeyIds, signers, verifiers, publicKeys);
+    }
+
+    private JWSAlgorithm algorithm(JWK jwk) {
+        return JWSAlgorithm.parse(jwk.getAlgorithm().getName());
     }
 
-    private void initializeSymmetricKeys() {
+    /**
+     * Reloads the signing keys if another node has rolled them over. Called by the {@link KeyRolloverListener}
+     * so the new key is decrypted before it is first used on this node.
+     */
+    public void refreshSigningKeys() {
+        this.signingKeys.refresh();
+    }
+
+    public List<JWSAlgorithm> getSigningAlgorithms() {
+        return Collections.unmodifiableList(this.signingAlgorithms);
+    }
+
+    public Collection<String> getCurrentSigningKeyIds() {
+        return this.signingKeys.get().getCurrentKeyIds().values();
+    }
+
+    private List<SigningKey> saveSigningKeys(List<JWK> jwks) {
+        List<SigningKey> signingKeys = jwks.stream().map(this::encryptSigningKey).collect(Collectors.toList());
+        //the sequence is updated after the save, otherwise other nodes could load the keys before the new keys exist
+        this.signingKeyRepository.saveAll(signingKeys);
+        this.sequenceRepository.updateSigningKeyId(signingKeys.get(0).getKeyId());
+        return signingKeys;
+    }
+
+    private SymmetricKeyState loadSymmetricKeys() {
         List<KeysetHandle> keysetHandles = this.symmetricKeyRepository.findAllByOrderByCreatedDesc().stream()
                 .map(this::parseKeysetHandle)
                 .collect(Collectors.toList());
@@ -201,24 +358,35 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
             SymmetricKey symmetricKey = generateSymmetricKey();
             keysetHandles = Collections.singletonList(parseKeysetHandle(symmetricKey));
         }
-        this.currentSymmetricKeyId = String.valueOf(keysetHandles.get(0).getKeysetInfo().getPrimaryKeyId());
-        this.keysetHandleMap = keysetHandles.stream().collect(toMap(
+        Map<String, KeysetHandle> keysetHandleMap = keysetHandles.stream().collect(toMap(
                 keysetHandle -> String.valueOf(keysetHandle.getKeysetInfo().getPrimaryKeyId()),
                 keysetHandle -> keysetHandle));
+        //Aead primitives are thread-safe, so they are created once per key instead of per operation
+        return new SymmetricKeyState(
+                String.valueOf(keysetHandles.get(0).getKeysetInfo().getPrimaryKeyId()),
+                keysetHandleMap,
+                keysetHandleMap.entrySet().stream().collect(toMap(Map.Entry::getKey, entry -> createAead(entry.getValue()))));
+    }
+
+    private Aead createAead(KeysetHandle keysetHandle) {
+        try {
+            return AeadFactory.getPrimitive(keysetHandle);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private SymmetricKey generateSymmetricKey() {
         try {
-            KeysetHandle keysetHandle = KeysetHandle.generateNew(AeadKeyTemplates.AES256_CTR_HMAC_SHA256);
+            KeysetHandle keysetHandle = KeysetHandle.generateNew(aeadKeyTemplate);
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            keysetHandle.write(JsonKeysetWriter.withOutputStream(outputStream), AeadFactory.getPrimitive(primaryKeysetHandle));
+            keysetHandle.write(JsonKeysetWriter.withOutputStream(outputStream), primaryAead);
             int primaryKeyId = keysetHandle.getKeysetInfo().getPrimaryKeyId();
-            String newKeyId = String.valueOf(primaryKeyId);
-            sequenceRepository.updateSymmetricKeyId(newKeyId);
+            String keyId = String.valueOf(primaryKeyId);
             String aead = Base64.getEncoder().encodeToString(outputStream.toString().getBytes(defaultCharset()));
-            String keyId = newKeyId;
             SymmetricKey symmetricKey = new SymmetricKey(keyId, aead, new Date());
             symmetricKeyRepository.save(symmetricKey);
+            sequenceRepository.updateSymmetricKeyId(keyId);
             return symmetricKey;
         } catch (IOException | GeneralSecurityException e) {
             throw new RuntimeException(e);
@@ -227,13 +395,22 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
 
     public SymmetricKey rolloverSymmetricKeys() {
         SymmetricKey symmetricKey = generateSymmetricKey();
-        this.initializeSymmetricKeys();
+        this.symmetricKeys.reload();
+        this.decodedAccessTokens.clear();
         return symmetricKey;
     }
 
-    private RSAKey parseEncryptedRsaKey(SigningKey signingKey) {
+    /**
+     * Reloads the symmetric keys if another node has rolled them over. Called by the {@link KeyRolloverListener}.
+     */
+    public void refreshSymmetricKeys() {
+        this.symmetricKeys.refresh();
+        this.decodedAccessTokens.clear();
+    }
+
+    private JWK parseEncryptedSigningKey(SigningKey signingKey) {
         try {
-            return RSAKey.parse(decryptAead(signingKey.getJwk(), signingKey.getSymmetricKeyId()));
+            return JWK.parse(decryptAead(signingKey.getJwk(), signingKey.getSymmetricKeyId()));
         } catch (ParseException e) {
             throw new RuntimeException(e);
         }
@@ -242,7 +419,7 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
     private KeysetHandle parseKeysetHandle(SymmetricKey symmetricKey) {
         byte[] decoded = Base64.getDecoder().decode(symmetricKey.getAead());
         try {
-            return KeysetHandle.read(JsonKeysetReader.withBytes(decoded), AeadFactory.getPrimitive(primaryKeysetHandle));
+            return KeysetHandle.read(JsonKeysetReader.withBytes(decoded), primaryAead);
         } catch (IOException | GeneralSecurityException e) {
             throw new RuntimeException(e);
         }
@@ -266,17 +443,35 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
         return new String(chars);
     }
 
-    public EncryptedTokenValue generateAccessTokenWithEmbeddedUserInfo(User user, OpenIDClient client) {
+    public String generateRequestURIReference() {
+        byte[] reference = new byte[32];
+        random.nextBytes(reference);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(reference);
+    }
+
+    public EncryptedTokenValue generateAccessTokenWithEmbeddedUserInfo(User user, OpenIDClient client, List<String> scopes) {
+        return generateAccessTokenWithEmbeddedUserInfo(user, client, scopes, Collections.emptyList());
+    }
+
+    /**
+     * The user claims are also encrypted for the resource servers - which must have an access token encryption key - in
+     * the resource_server_claims claim, one JWE with a recipient per resource server. See
+     * {@link ResourceServerTokenEncrypter}. The resource servers beyond access-token.max-embedded-resource-servers, or
+     * that would make the access token larger than access-token.max-bytes, are left out and use the introspect endpoint.
+     */
+    public EncryptedTokenValue generateAccessTokenWithEmbeddedUserInfo(User user, OpenIDClient client, List<String> scopes,
+                                                                       List<OpenIDClient> resourceServers) {
         try {
-            String currentSigningKeyId = this.ensureLatestSigningKey();
-            return new EncryptedTokenValue(doGenerateAccessTokenWithEmbeddedUser(user, client, currentSigningKeyId), currentSigningKeyId);
+            return doGenerateAccessTokenWithEmbeddedUser(user, client, scopes, resourceServers, this.signingKeys.get());
         } catch (Exception e) {
             //anti pattern but too many exceptions to catch without any surviving option
             throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
         }
     }
 
-    private String doGenerateAccessTokenWithEmbeddedUser(User user, OpenIDClient client, String signingKey) throws JsonProcessingException, JOSEException {
+    private EncryptedTokenValue doGenerateAccessTokenWithEmbeddedUser(User user, OpenIDClient client, List<String> scopes,
+                                                                      List<OpenIDClient> resourceServers,
+                                                                      SigningKeyState signingKeyState) throws JsonProcessingException, JOSEException {
         String json = objectMapper.writeValueAsString(user);
 
         EncryptedTokenValue encryptedTokenValue = encryptAead(json);
@@ -284,15 +479,78 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
         Map<String, Object> additionalClaims = new HashMap<>();
         additionalClaims.put("claims", encryptedTokenValue.getValue());
         additionalClaims.put("claim_key_id", encryptedTokenValue.getKeyId());
+        //needed to validate the access token without the AccessToken document
+        additionalClaims.put("client_id", client.getClientId());
+        additionalClaims.put("scope", String.join(" ", scopes));
+
+        JWTClaimsSet.Builder builder = claimsSetBuilder(client, Optional.empty(), additionalClaims, Collections.emptyList(), true);
+        //the claims are base64url encoded in the access token, 4 characters for every 3 bytes
+        int maxResourceServerClaimsBytes = (maxAccessTokenBytes - JWS_OVERHEAD_BYTES) / 4 * 3 -
+                builder.build().toString().getBytes(StandardCharsets.UTF_8).length;
+        Map<String, Object> resourceServerClaims = resourceServerClaims(user, client, scopes, resourceServers,
+                maxResourceServerClaimsBytes);
+        if (!resourceServerClaims.isEmpty()) {
+            builder.claim("resource_server_claims", resourceServerClaims);
+        }
 
-        return idToken(client, Optional.empty(), additionalClaims, Collections.emptyList(), true, signingKey);
+        JWSAlgorithm algorithm = this.signingAlgorithms.get(0);
+        String accessToken = sign(builder.build(), signingKeyState, algorithm);
+        return new EncryptedTokenValue(accessToken, signingKeyState.getCurrentKeyId(algorithm), encryptedTokenValue.getKeyId(),
+                encryptedTokenValue.getValue());
+    }
+
+    private Map<String, Object> resourceServerClaims(User user, OpenIDClient client, List<String> scopes,
+                                                     List<OpenIDClient> resourceServers, int maxBytes)
+            throws JsonProcessingException {
+        List<OpenIDClient> recipients = resourceServerTokenEncrypter.recipients(resourceServers);
+        if (recipients.size() > maxEmbeddedResourceServers) {
+            //bounds the size of the access token, the other resource servers use the introspect endpoint
+            LOG.debug(String.format("Access token of client %s embeds the claims for %s of its %s resource servers",
+                    client.getClientId(), maxEmbeddedResourceServers, recipients.size()));
+            recipients = recipients.subList(0, maxEmbeddedResourceServers);
+        }
+        //the same claims as the introspect endpoint returns for the resource servers, aud lists all of them
+        Map<String, Object> claims = new HashMap<>(user.getAttributes());
+        claims.put("updated_at", user.getUpdatedAt());
+        claims.put("authenticating_authority", user.getAuthenticatingAuthority());
+        claims.put("sub", user.getSub());
+        claims.put("scope", String.join(",", scopes));
+        claims.put("client_id", client.getClientId());
+        claims.put("iss", issuer);
+        Map<String, String> recipientClaims = new HashMap<>();
+        for (OpenIDClient recipient : recipients) {
+            if (recipient.isIncludeUnspecifiedNameID()) {
+                recipientClaims.put(recipient.getClientId(),
+                        objectMapper.writeValueAsString(Collections.singletonMap("unspecified_id", user.getUnspecifiedNameId())));
+            }
+        }
+        try {
+            //leave out the last resource servers until the access token fits
+            for (int size = recipients.size(); size > 0; size--) {
+                List<OpenIDClient> embedded = recipients.subList(0, size);
+                claims.put("aud", embedded.stream().map(OpenIDClient::getClientId).collect(Collectors.toList()));
+                Map<String, Object> result = resourceServerTokenEncrypter.encrypt(embedded,
+                        objectMapper.writeValueAsString(claims), recipientClaims);
+                if (JSONObjectUtils.toJSONString(result).getBytes(StandardCharsets.UTF_8).length <= maxBytes) {
+                    if (size < recipients.size()) {
+                        LOG.debug(String.format("Access token of client %s embeds the claims for %s of its %s resource servers",
+                                client.getClientId(), size, recipients.size()));
+                    }
+                    return result;
+                }
+            }
+        } catch (ParseException | JOSEException e) {
+            //the resource servers can still use the introspect endpoint
+            LOG.warn(String.format("Exception encrypting the claims for the resource servers of client %s", client.getClientId()), e);
+        }
+        return Collections.emptyMap();
     }
 
     private EncryptedTokenValue encryptAead(String s) {
         try {
-            String currentSymmetricKeyId = this.ensureLatestSymmetricKey();
-            KeysetHandle keysetHandle = this.safeGet(currentSymmetricKeyId, this.keysetHandleMap);
-            Aead aead = AeadFactory.getPrimitive(keysetHandle);
+            SymmetricKeyState symmetricKeyState = this.symmetricKeys.get();
+            String currentSymmetricKeyId = symmetricKeyState.getCurrentKeyId();
+            Aead aead = this.safeGet(currentSymmetricKeyId, symmetricKeyState.getAeads());
             byte[] src = aead.encrypt(s.getBytes(defaultCharset()), associatedData);
             return new EncryptedTokenValue(Base64.getEncoder().encodeToString(src), currentSymmetricKeyId);
         } catch (GeneralSecurityException e) {
@@ -300,6 +558,9 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
         }
     }
 
+    /**
+     * Decrypts the user embedded in the access token. The returned user is cached and shared, so it must not be modified.
+     */
     public User decryptAccessTokenWithEmbeddedUserInfo(String accessToken) {
         try {
             return doDecryptAccessTokenWithEmbeddedUserInfo(accessToken);
@@ -310,21 +571,93 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
     }
 
     private User doDecryptAccessTokenWithEmbeddedUserInfo(String accessToken) throws ParseException, JOSEException, IOException {
+        //repeated userinfo and introspect calls for the same access token skip the signature verification and decryption
+        byte[] accessTokenId = TokenHash.sha256(accessToken);
+        long now = System.currentTimeMillis();
+        User cachedUser = decodedAccessTokens.get(accessTokenId, now);
+        if (cachedUser != null) {
+            return cachedUser;
+        }
         SignedJWT signedJWT = SignedJWT.parse(accessToken);
         Map<String, Object> claims = verifyClaims(signedJWT);
         String encryptedClaims = (String) claims.get("claims");
         String keyId = (String) claims.get("claim_key_id");
 
-        String s = decryptAead(encryptedClaims, keyId);
+        String json = decryptAead(encryptedClaims, keyId);
+        User user = objectMapper.readValue(json, User.class);
+        Date expirationTime = signedJWT.getJWTClaimsSet().getExpirationTime();
+        if (expirationTime != null) {
+            decodedAccessTokens.put(accessTokenId, user, json.length(), expirationTime.getTime(), now);
+        }
+        return user;
+    }
+
+    /**
+     * Validates the signature and issuer of an access token with an embedded user and returns the AccessToken described
+     * by its claims, without a database lookup. Empty if the value is not such a JWT or if the token was issued without
+     * the client_id and scope claims. Expiry, revocation and audience must be checked by the caller, e.g. the introspect
+     * endpoint checks the resource server against the current allowed resource servers of the client, just like it does
+     * for access tokens that are looked up.
+     */
+    public Optional<AccessToken> decodeAccessToken(String accessToken) {
+        SignedJWT signedJWT;
+        try {
+            signedJWT = SignedJWT.parse(accessToken);
+        } catch (ParseException e) {
+            //opaque access token of the client credentials grant
+            return Optional.empty();
+        }
+        try {
+            verifyClaims(signedJWT);
+            JWTClaimsSet claimsSet = signedJWT.getJWTClaimsSet();
+            String clientId = claimsSet.getStringClaim("client_id");
+            String scope = claimsSet.getStringClaim("scope");
+            Date expirationTime = claimsSet.getExpirationTime();
+            if (clientId == null || scope == null || expirationTime == null || !issuer.equals(claimsSet.getIssuer())) {
+                return Optional.empty();
+            }
+            List<String> scopes = StringUtils.hasText(scope) ? Arrays.asList(scope.split(" ")) : Collections.emptyList();
+            return Optional.of(new AccessToken(accessToken, claimsSet.getSubject(), clientId, scopes,
+                    signedJWT.getHeader().getKeyID(), claimsSet.getStringClaim("claim_key_id"), expirationTime, false, null));
+        } catch (ParseException | JOSEException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Removes the cached decoded user of a revoked access token
+     */
+    public void evictDecodedAccessToken(byte[] accessTokenId) {
+        decodedAccessTokens.evict(accessTokenId);
+    }
 
+    /**
+     * Decrypts the user claims as stored with a refresh token
+     */
+    public User decryptUserInfo(String encryptedClaims, String claimKeyId) {
+        try {
+            return doDecryptUserInfo(encryptedClaims, claimKeyId);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private User doDecryptUserInfo(String encryptedClaims, String claimKeyId) throws IOException {
+        String s = decryptAead(encryptedClaims, claimKeyId);
         return objectMapper.readValue(s, User.class);
     }
 
     private String decryptAead(String s, String symmetricKeyId) {
         try {
-            this.ensureLatestSymmetricKey();
-            KeysetHandle keysetHandle = safeGet(symmetricKeyId, this.keysetHandleMap);
-            Aead aead = AeadFactory.getPrimitive(keysetHandle);
+            SymmetricKeyState symmetricKeyState = this.symmetricKeys.get();
+            if (!symmetricKeyState.getAeads().containsKey(symmetricKeyId) && missRefreshAllowed(lastSymmetricKeyMissRefresh)) {
+                //another node might have rolled over the symmetric key
+                symmetricKeyState = this.symmetricKeys.refresh(state -> !state.getAeads().containsKey(symmetricKeyId));
+            }
+            Aead aead = symmetricKeyState.getAeads().get(symmetricKeyId);
+            if (aead == null) {
+                throw new InvalidSignatureException("Unknown symmetric key");
+            }
             byte[] decoded = Base64.getDecoder().decode(s);
             return new String(aead.decrypt(decoded, associatedData));
         } catch (GeneralSecurityException e) {
@@ -339,8 +672,8 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
         if (StringUtils.hasText(nonce)) {
             additionalClaims.put("nonce", nonce);
         }
-        String currentSigningKeyId = ensureLatestSigningKey();
-        return idToken(client, user, additionalClaims, idTokenClaims, false, currentSigningKeyId);
+        return idToken(client, user, additionalClaims, idTokenClaims, false, this.signingKeys.get(),
+                this.signingAlgorithm(client));
     }
 
     public String generateIDTokenForAuthorizationEndpoint(User user, OpenIDClient client, Nonce nonce,
@@ -348,32 +681,72 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
                                                           List<String> claims, Optional<String> authorizationCode,
                                                           State state)
             throws JOSEException, NoSuchProviderException, NoSuchAlgorithmException {
+        JWSAlgorithm algorithm = this.signingAlgorithm(client);
         Map<String, Object> additionalClaims = new HashMap<>();
         additionalClaims.put("auth_time", System.currentTimeMillis() / 1000L);
         if (nonce != null) {
             additionalClaims.put("nonce", nonce.getValue());
         }
         if (AccessTokenHash.isRequiredInIDTokenClaims(responseType)) {
-            additionalClaims.put("at_hash",
-                    AccessTokenHash.compute(new BearerAccessToken(accessToken), signingAlg).getValue());
+            additionalClaims.put("at_hash", hashClaim(new BearerAccessToken(accessToken), algorithm));
         }
         if (CodeHash.isRequiredInIDTokenClaims(responseType) && authorizationCode.isPresent()) {
             additionalClaims.put("c_hash",
-                    CodeHash.compute(new com.nimbusds.oauth2.sdk.AuthorizationCode(authorizationCode.get()), signingAlg));
+                    hashClaim(new com.nimbusds.oauth2.sdk.AuthorizationCode(authorizationCode.get()), algorithm));
         }
         if (state != null && StringUtils.hasText(state.getValue())) {
-            additionalClaims.put("s_hash", StateHash.compute(state, signingAlg));
+            additionalClaims.put("s_hash", hashClaim(state, algorithm));
+        }
+        return idToken(client, Optional.of(user), additionalClaims, claims, false, this.signingKeys.get(), algorithm);
+    }
+
+    private JWSAlgorithm signingAlgorithm(OpenIDClient client) {
+        String idTokenSignedResponseAlg = client.getIdTokenSignedResponseAlg();
+        if (StringUtils.hasText(idTokenSignedResponseAlg)) {
+            JWSAlgorithm algorithm = JWSAlgorithm.parse(idTokenSignedResponseAlg);
+            if (this.signingAlgorithms.contains(algorithm)) {
+                return algorithm;
+            }
+            LOG.warn(String.format("Client %s requested signing algorithm %s which is not one of the configured %s. Using %s",
+                    client.getClientId(), idTokenSignedResponseAlg, this.signingAlgorithms, this.signingAlgorithms.get(0)));
+        }
+        return this.signingAlgorithms.get(0);
+    }
+
+    private String hashClaim(Identifier identifier, JWSAlgorithm algorithm) {
+        if (!JWSAlgorithm.EdDSA.equals(algorithm)) {
+            return HashClaim.computeValue(identifier, algorithm);
+        }
+        //Not supported by the SDK. For Ed25519 the hash is the left-most half of the SHA-512 hash
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-512").digest(identifier.getValue().getBytes(StandardCharsets.US_ASCII));
+            return Base64URL.encode(Arrays.copyOf(hash, hash.length / 2)).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
         }
-        String currentSigningKeyId = ensureLatestSigningKey();
-        return idToken(client, Optional.of(user), additionalClaims, claims, false, currentSigningKeyId);
     }
 
     public List<JWK> getAllPublicKeys() {
-        this.ensureLatestSigningKey();
-        return new ArrayList<>(this.publicKeys);
+        //Rollovers on other nodes are pushed by the KeyRolloverListener or noticed within the refresh interval, so the
+        //public endpoint is served from the snapshot without locking or querying Mongo
+        return new ArrayList<>(this.signingKeys.get().getPublicKeys());
     }
 
-    private RSAKey generateRsaKey(String keyID) {
+    private JWK generateSigningKey(JWSAlgorithm algorithm) {
+        try {
+            if (JWSAlgorithm.ES256.equals(algorithm)) {
+                return new ECKeyGenerator(Curve.P_256).algorithm(algorithm).generate();
+            }
+            if (JWSAlgorithm.EdDSA.equals(algorithm)) {
+                return new OctetKeyPairGenerator(Curve.Ed25519).algorithm(algorithm).generate();
+            }
+        } catch (JOSEException e) {
+            throw new RuntimeException(e);
+        }
+        return generateRsaKey();
+    }
+
+    private RSAKey generateRsaKey() {
         KeyPairGenerator kpg;
         try {
             kpg = KeyPairGenerator.getInstance("RSA", "BC");
@@ -388,22 +761,46 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
         return new RSAKey.Builder(publicKey)
                 .privateKey(privateKey)
                 .algorithm(signingAlg)
-                .keyID(keyID)
                 .build();
     }
 
-    private SigningKey generateEncryptedRsaKey() {
+    private List<JWK> generateSigningKeys(List<JWSAlgorithm> algorithms) {
         String keyId = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS").format(new Date());
-        this.sequenceRepository.updateSigningKeyId(keyId);
-        RSAKey rsaKey = generateRsaKey(String.format("key_%s", keyId));
-        EncryptedTokenValue encryptedTokenValue = encryptAead(rsaKey.toJSONString());
-        return new SigningKey(rsaKey.getKeyID(), encryptedTokenValue.getKeyId(), encryptedTokenValue.getValue(), new Date());
+        return algorithms.stream().map(algorithm -> {
+            //RS256 keys keep the key ID format of the time when RS256 was the only algorithm
+            String keyID = JWSAlgorithm.RS256.equals(algorithm) ? String.format("key_%s", keyId) :
+                    String.format("key_%s_%s", keyId, algorithm.getName().toLowerCase());
+            return withKeyID(this.signingKeyPool.take(algorithm), keyID);
+        }).collect(Collectors.toList());
+    }
+
+    private JWK withKeyID(JWK jwk, String keyID) {
+        if (jwk instanceof ECKey) {
+            return new ECKey.Builder((ECKey) jwk).keyID(keyID).build();
+        }
+        if (jwk instanceof OctetKeyPair) {
+            return new OctetKeyPair.Builder((OctetKeyPair) jwk).keyID(keyID).build();
+        }
+        return new RSAKey.Builder((RSAKey) jwk).keyID(keyID).build();
+    }
+
+    private SigningKey encryptSigningKey(JWK jwk) {
+        EncryptedTokenValue encryptedTokenValue = encryptAead(jwk.toJSONString());
+        return new SigningKey(jwk.getKeyID(), encryptedTokenValue.getKeyId(), encryptedTokenValue.getValue(), new Date());
     }
 
     private Map<String, Object> verifyClaims(SignedJWT signedJWT) throws ParseException, JOSEException {
         String keyID = signedJWT.getHeader().getKeyID();
-        this.ensureLatestSigningKey();
-        JWSVerifier verifier = this.safeGet(keyID, this.verifiers);
+        SigningKeyState signingKeyState = this.signingKeys.get();
+        if (!signingKeyState.getVerifiers().containsKey(keyID) && missRefreshAllowed(lastSigningKeyMissRefresh)) {
+            //another node might have rolled over the signing key
+            signingKeyState = this.signingKeys.refresh(state -> !state.getVerifiers().containsKey(keyID));
+        }
+        //not a safeGet, the key ID's must not end up in the error response
+        JWSVerifier verifier = signingKeyState.getVerifiers().get(keyID);
+        if (verifier == null) {
+            throw new InvalidSignatureException("Unknown signing key");
+        }
         if (!signedJWT.verify(verifier)) {
             throw new InvalidSignatureException("Tampered JWT");
         }
@@ -411,7 +808,15 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
     }
 
     private String idToken(OpenIDClient client, Optional<User> optionalUser, Map<String, Object> additionalClaims,
-                           List<String> idTokenClaims, boolean includeAllowedResourceServers, String signingKey) throws JOSEException {
+                           List<String> idTokenClaims, boolean includeAllowedResourceServers,
+                           SigningKeyState signingKeyState, JWSAlgorithm algorithm) throws JOSEException {
+        return sign(claimsSetBuilder(client, optionalUser, additionalClaims, idTokenClaims, includeAllowedResourceServers)
+                .build(), signingKeyState, algorithm);
+    }
+
+    private JWTClaimsSet.Builder claimsSetBuilder(OpenIDClient client, Optional<User> optionalUser,
+                                                  Map<String, Object> additionalClaims, List<String> idTokenClaims,
+                                                  boolean includeAllowedResourceServers) {
         List<String> audiences = new ArrayList<>();
         audiences.add(client.getClientId());
         if (includeAllowedResourceServers) {
@@ -450,46 +855,52 @@ public class TokenGenerator implements MapTypeReference, ApplicationListener<App
         });
 
         additionalClaims.forEach(builder::claim);
+        return builder;
+    }
 
-        JWTClaimsSet claimsSet = builder.build();
-        JWSHeader header = new JWSHeader.Builder(signingAlg).type(JOSEObjectType.JWT).keyID(signingKey).build();
+    private String sign(JWTClaimsSet claimsSet, SigningKeyState signingKeyState, JWSAlgorithm algorithm) throws JOSEException {
+        String signingKey = signingKeyState.getCurrentKeyId(algorithm);
+        JWSHeader header = new JWSHeader.Builder(algorithm).type(JOSEObjectType.JWT).keyID(signingKey).build();
         SignedJWT signedJWT = new SignedJWT(header, claimsSet);
-        this.ensureLatestSigningKey();
-        JWSSigner jswsSigner = this.safeGet(signingKey, this.signers);
+        JWSSigner jswsSigner = this.safeGet(signingKey, signingKeyState.getSigners());
         signedJWT.sign(jswsSigner);
         return signedJWT.serialize();
     }
 
-    private String ensureLatestSigningKey() {
-        if (!sequenceRepository.currentSigningKeyId().equals(this.currentSigningKeyId)) {
-            this.initializeSigningKeys();
-        }
-        return this.currentSigningKeyId;
-    }
-
-    private String ensureLatestSymmetricKey() {
-        if (!sequenceRepository.currentSymmetricKeyId().equals(this.currentSymmetricKeyId)) {
-            this.initializeSymmetricKeys();
-        }
-        return this.currentSymmetricKeyId;
-    }
-
-    private RSASSASigner createRSASigner(RSAKey k) {
+    private JWSSigner createSigner(JWK k) {
         try {
-            return new RSASSASigner(k);
+            if (k instanceof ECKey) {
+                return new ECDSASigner((ECKey) k);
+            }
+            if (k instanceof OctetKeyPair) {
+                return new Ed25519Signer((OctetKeyPair) k);
+            }
+            return new RSASSASigner((RSAKey) k);
         } catch (JOSEException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private RSASSAVerifier createRSAVerifier(RSAKey k) {
+    private JWSVerifier createVerifier(JWK k) {
         try {
-            return new RSASSAVerifier(k);
+            if (k instanceof ECKey) {
+                return new ECDSAVerifier((ECKey) k);
+            }
+            if (k instanceof OctetKeyPair) {
+                return new Ed25519Verifier(((OctetKeyPair) k).toPublicJWK());
+            }
+            return new RSASSAVerifier((RSAKey) k);
         } catch (JOSEException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private boolean missRefreshAllowed(AtomicLong lastMissRefresh) {
+        long now = System.currentTimeMillis();
+        long last = lastMissRefresh.get();
+        return now - last >= MISS_REFRESH_INTERVAL_MILLIS && lastMissRefresh.compareAndSet(last, now);
+    }
+
     private <T> T safeGet(String k, Map<String, T> map) {
         T t = map.get(k);
         if (t == null) {
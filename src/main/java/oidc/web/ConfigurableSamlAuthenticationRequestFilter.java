@@ -2,15 +2,21 @@ package oidc.web;
 
 import com.nimbusds.oauth2.sdk.AuthorizationRequest;
 import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.http.ServletUtils;
 import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.util.URLUtils;
 import com.nimbusds.openid.connect.sdk.Prompt;
 import com.nimbusds.openid.connect.sdk.claims.ACR;
 import oidc.endpoints.AuthorizationEndpoint;
+import oidc.endpoints.ConcurrentPushedAuthorizationRequestRepository;
+import oidc.endpoints.PushedAuthorizationRequestEndpoint;
+import oidc.manage.OpenIDClientCache;
 import oidc.manage.ServiceProviderTranslation;
 import oidc.model.OpenIDClient;
+import oidc.model.PushedAuthorizationRequest;
+import oidc.model.TokenHash;
 import oidc.repository.AuthenticationRequestRepository;
-import oidc.repository.OpenIDClientRepository;
 import oidc.secure.JWTRequest;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -40,22 +46,30 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class ConfigurableSamlAuthenticationRequestFilter extends SamlAuthenticationRequestFilter {
 
     private PortResolverImpl portResolver;
     private AuthenticationRequestRepository authenticationRequestRepository;
-    private OpenIDClientRepository openIDClientRepository;
+    private OpenIDClientCache openIDClientCache;
+    private JWTRequest jwtRequest;
+    private ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository;
 
     static String REDIRECT_URI_VALID = "REDIRECT_URI_VALID";
 
     public ConfigurableSamlAuthenticationRequestFilter(SamlProviderProvisioning<ServiceProviderService> provisioning,
                                                        SamlRequestMatcher samlRequestMatcher,
                                                        AuthenticationRequestRepository authenticationRequestRepository,
-                                                       OpenIDClientRepository openIDClientRepository) {
+                                                       OpenIDClientCache openIDClientCache,
+                                                       JWTRequest jwtRequest,
+                                                       ConcurrentPushedAuthorizationRequestRepository pushedAuthorizationRequestRepository) {
         super(provisioning, samlRequestMatcher);
-        this.openIDClientRepository = openIDClientRepository;
+        this.pushedAuthorizationRequestRepository = pushedAuthorizationRequestRepository;
+        this.openIDClientCache = openIDClientCache;
+        this.jwtRequest = jwtRequest;
         this.authenticationRequestRepository = authenticationRequestRepository;
         this.portResolver = new PortResolverImpl();
     }
@@ -67,13 +81,15 @@ public class ConfigurableSamlAuthenticationRequestFilter extends SamlAuthenticat
 
     private AuthenticationRequest enhanceAuthenticationRequest(ServiceProviderService provider,
                                                                HttpServletRequest request,
-                                                               AuthenticationRequest authenticationRequest) {
+                                                               Map<String, List<String>> parameters,
+                                                               AuthenticationRequest authenticationRequest,
+                                                               Optional<com.nimbusds.openid.connect.sdk.AuthenticationRequest> verifiedRequest) {
         String clientId = getRelayState(provider, request);
         if (StringUtils.hasText(clientId)) {
             String entityId = ServiceProviderTranslation.translateClientId(clientId);
             authenticationRequest.setScoping(new Scoping(null, Collections.singletonList(entityId), 1));
         }
-        String prompt = AuthorizationEndpoint.validatePrompt(request);
+        String prompt = AuthorizationEndpoint.validatePrompt(parameter(parameters, "prompt"));
 
         authenticationRequest.setForceAuth("login".equals(prompt));
 
@@ -82,52 +98,75 @@ public class ConfigurableSamlAuthenticationRequestFilter extends SamlAuthenticat
          * authenticationRequest.setPassive("none".equals(prompt));
          */
 
-        if (!authenticationRequest.isForceAuth() && StringUtils.hasText(request.getParameter("max_age"))) {
+        if (!authenticationRequest.isForceAuth() && StringUtils.hasText(parameter(parameters, "max_age"))) {
             authenticationRequest.setForceAuth(true);
         }
-        String acrValues = request.getParameter("acr_values");
+        String acrValues = parameter(parameters, "acr_values");
         if (StringUtils.hasText(acrValues)) {
             List<ACR> acrList = Arrays.stream(acrValues.split(" ")).map(ACR::new).collect(Collectors.toList());
             parseAcrValues(authenticationRequest, acrList);
         }
-        String requestP = request.getParameter("request");
-        String requestUrlP = request.getParameter("request_uri");
-        if (StringUtils.hasText(requestP) || StringUtils.hasText(requestUrlP)) {
-            OpenIDClient openIDClient = openIDClientRepository.findByClientId(clientId);
-            try {
-                com.nimbusds.openid.connect.sdk.AuthenticationRequest authRequest =
-                        com.nimbusds.openid.connect.sdk.AuthenticationRequest.parse(ServletUtils.createHTTPRequest(request));
-                authRequest = JWTRequest.parse(authRequest, openIDClient);
-                List<ACR> acrValuesObjects = authRequest.getACRValues();
-                parseAcrValues(authenticationRequest, acrValuesObjects);
-                Prompt authRequestPrompt = authRequest.getPrompt();
-                prompt = AuthorizationEndpoint.validatePrompt(authRequestPrompt);
-                if (!authenticationRequest.isForceAuth() && authRequest.getMaxAge() > -1) {
-                    authenticationRequest.setForceAuth(true);
-                }
-                if (!authenticationRequest.isForceAuth() && prompt != null) {
-                    authenticationRequest.setForceAuth(prompt.contains("login"));
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        if (verifiedRequest.isPresent()) {
+            com.nimbusds.openid.connect.sdk.AuthenticationRequest authRequest = verifiedRequest.get();
+            List<ACR> acrValuesObjects = authRequest.getACRValues();
+            parseAcrValues(authenticationRequest, acrValuesObjects);
+            Prompt authRequestPrompt = authRequest.getPrompt();
+            prompt = AuthorizationEndpoint.validatePrompt(authRequestPrompt);
+            if (!authenticationRequest.isForceAuth() && authRequest.getMaxAge() > -1) {
+                authenticationRequest.setForceAuth(true);
+            }
+            if (!authenticationRequest.isForceAuth() && prompt != null) {
+                authenticationRequest.setForceAuth(prompt.contains("login"));
             }
         }
         return authenticationRequest;
     }
 
+    /*
+     * The request merged with the verified claims of the request object, if any. It is saved with the SAML
+     * authentication request, so the AuthorizationEndpoint does not have to fetch and verify the request object again.
+     */
+    private Optional<com.nimbusds.openid.connect.sdk.AuthenticationRequest> verifyRequestObject(HttpServletRequest request,
+                                                                                                HTTPRequest httpRequest) {
+        if (AuthorizationEndpoint.requestObject(request::getParameter) == null) {
+            return Optional.empty();
+        }
+        OpenIDClient openIDClient = openIDClientCache.findByClientId(request.getParameter("client_id"));
+        try {
+            com.nimbusds.openid.connect.sdk.AuthenticationRequest authRequest =
+                    com.nimbusds.openid.connect.sdk.AuthenticationRequest.parse(httpRequest);
+            return Optional.of(jwtRequest.parse(authRequest, openIDClient));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (getRequestMatcher().matches(request) && (authentication == null || !authentication.isAuthenticated())) {
 
-            validateAuthorizationRequest(request);
+            HTTPRequest httpRequest = ServletUtils.createHTTPRequest(request);
+            Map<String, List<String>> parameters = httpRequest.getQueryParameters();
+            String requestURI = request.getParameter("request_uri");
+            boolean pushedRequest = PushedAuthorizationRequest.isPushedRequestURI(requestURI);
+            if (pushedRequest) {
+                parameters = PushedAuthorizationRequestEndpoint.resolve(pushedAuthorizationRequestRepository, requestURI,
+                        request.getParameter("client_id"));
+            }
+            //a pushed request is validated already, but the client may have changed in the mean time
+            validateAuthorizationRequest(request, parameters);
+            Optional<com.nimbusds.openid.connect.sdk.AuthenticationRequest> verifiedRequest = pushedRequest ?
+                    Optional.empty() : verifyRequestObject(request, httpRequest);
 
             ServiceProviderService provider = getProvisioning().getHostedProvider();
             IdentityProviderMetadata idp = provider.getRemoteProviders().get(0);
             AuthenticationRequest authenticationRequest = provider.authenticationRequest(idp);
-            authenticationRequest = enhanceAuthenticationRequest(provider, request, authenticationRequest);
-            saveAuthenticationRequestUrl(request, authenticationRequest);
+            authenticationRequest = enhanceAuthenticationRequest(provider, request, parameters, authenticationRequest, verifiedRequest);
+            String verifiedRequestQuery = pushedRequest ? URLUtils.serializeParameters(parameters) :
+                    verifiedRequest.map(ConfigurableSamlAuthenticationRequestFilter::serialize).orElse(null);
+            saveAuthenticationRequestUrl(request, authenticationRequest, verifiedRequestQuery);
             sendAuthenticationRequest(
                     provider,
                     request,
@@ -140,22 +179,37 @@ public class ConfigurableSamlAuthenticationRequestFilter extends SamlAuthenticat
         }
     }
 
-    private void saveAuthenticationRequestUrl(HttpServletRequest request, AuthenticationRequest authenticationRequest) {
+    private void saveAuthenticationRequestUrl(HttpServletRequest request, AuthenticationRequest authenticationRequest,
+                                             String verifiedRequestQuery) {
         String id = authenticationRequest.getId();
         LocalDateTime ldt = LocalDateTime.now().plusSeconds(60 * 15);
         Date expiresIn = Date.from(ldt.atZone(ZoneId.systemDefault()).toInstant());
         SavedRequest savedRequest = new DefaultSavedRequest(request, portResolver);
+        byte[] requestObjectHash = verifiedRequestQuery != null ?
+                TokenHash.sha256(AuthorizationEndpoint.requestObject(request::getParameter)) : null;
         authenticationRequestRepository.insert(
-                new oidc.model.AuthenticationRequest(id, expiresIn, savedRequest.getRedirectUrl())
+                new oidc.model.AuthenticationRequest(id, expiresIn, savedRequest.getRedirectUrl(), verifiedRequestQuery, requestObjectHash)
         );
     }
 
-    private void validateAuthorizationRequest(HttpServletRequest request) throws IOException {
+    private static String serialize(com.nimbusds.openid.connect.sdk.AuthenticationRequest verifiedRequest) {
+        Map<String, List<String>> parameters = verifiedRequest.toParameters();
+        parameters.remove("request");
+        parameters.remove("request_uri");
+        return URLUtils.serializeParameters(parameters);
+    }
+
+    private static String parameter(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        return CollectionUtils.isEmpty(values) ? null : values.get(0);
+    }
+
+    private void validateAuthorizationRequest(HttpServletRequest request, Map<String, List<String>> parameters) throws IOException {
         try {
-            AuthorizationRequest authorizationRequest = AuthorizationRequest.parse(ServletUtils.createHTTPRequest(request));
+            AuthorizationRequest authorizationRequest = AuthorizationRequest.parse(parameters);
             ClientID clientID = authorizationRequest.getClientID();
             if (clientID != null) {
-                OpenIDClient openIDClient = openIDClientRepository.findByClientId(clientID.getValue());
+                OpenIDClient openIDClient = openIDClientCache.findByClientId(clientID.getValue());
                 AuthorizationEndpoint.validateRedirectionURI(authorizationRequest, openIDClient);
 
                 request.setAttribute(REDIRECT_URI_VALID, true);
@@ -27,10 +27,12 @@ import oidc.endpoints.MapTypeReference;
 import oidc.model.AccessToken;
 import oidc.model.AuthorizationCode;
 import oidc.model.OpenIDClient;
+import oidc.model.PushedAuthorizationRequest;
 import oidc.model.RefreshToken;
 import oidc.model.Sequence;
 import oidc.model.SigningKey;
 import oidc.model.SymmetricKey;
+import oidc.model.TokenHash;
 import oidc.repository.SequenceRepository;
 import oidc.secure.TokenGenerator;
 import org.junit.Before;
@@ -77,6 +79,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 import static io.restassured.RestAssured.given;
@@ -121,7 +124,8 @@ public abstract class AbstractIntegrationTest implements TestUtils, MapTypeRefer
                 .remove(new Query())
                 .insert(openIDClients())
                 .execute();
-        Arrays.asList(SigningKey.class, SymmetricKey.class, AccessToken.class, AuthorizationCode.class)
+        sequenceRepository.updateOpenIDClientVersion(UUID.randomUUID().toString());
+        Arrays.asList(SigningKey.class, SymmetricKey.class, AccessToken.class, AuthorizationCode.class, PushedAuthorizationRequest.class)
                 .forEach(clazz -> mongoTemplate.remove(new Query(), clazz));
     }
 
@@ -330,15 +334,11 @@ public abstract class AbstractIntegrationTest implements TestUtils, MapTypeRefer
     }
 
     protected void expireAuthorizationCode(String code) {
-        doExpireWithFindProperty(code, AuthorizationCode.class, "code");
+        doExpire(code, AuthorizationCode.class);
     }
 
     private <T> void doExpire(String token, Class<T> clazz) {
-        doExpireWithFindProperty(token, clazz, "innerValue");
-    }
-
-    private <T> void doExpireWithFindProperty(String token, Class<T> clazz, String property) {
-        Object o = mongoTemplate.find(Query.query(Criteria.where(property).is(token)), clazz).get(0);
+        Object o = mongoTemplate.find(Query.query(Criteria.where("_id").is(TokenHash.sha256(token))), clazz).get(0);
         Date expiresIn = Date.from(LocalDateTime.now().minusYears(1L).atZone(ZoneId.systemDefault()).toInstant());
         ReflectionTestUtils.setField(o, "expiresIn", expiresIn);
         mongoTemplate.save(o);
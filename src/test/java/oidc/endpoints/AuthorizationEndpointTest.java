@@ -9,6 +9,7 @@ import io.restassured.response.Response;
 import oidc.AbstractIntegrationTest;
 import oidc.model.AuthorizationCode;
 import oidc.model.OpenIDClient;
+import oidc.model.TokenHash;
 import oidc.model.User;
 import oidc.secure.SignedJWTTest;
 import org.junit.Test;
@@ -221,7 +222,7 @@ public class AuthorizationEndpointTest extends AbstractIntegrationTest implement
         Map<String, String> fragmentParameters = fragmentToMap(fragment);
         String code = fragmentParameters.get("code");
 
-        AuthorizationCode authorizationCode = mongoTemplate.findOne(Query.query(Criteria.where("code").is(code)), AuthorizationCode.class);
+        AuthorizationCode authorizationCode = mongoTemplate.findOne(Query.query(Criteria.where("_id").is(TokenHash.sha256(code))), AuthorizationCode.class);
         User user = mongoTemplate.findOne(Query.query(Criteria.where("sub").is(authorizationCode.getSub())), User.class);
         assertNotNull(user);
 
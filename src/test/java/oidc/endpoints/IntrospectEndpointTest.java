@@ -5,6 +5,7 @@ import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.TokenIntrospectionRequest;
 import com.nimbusds.oauth2.sdk.http.CommonContentTypes;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import io.restassured.common.mapper.TypeRef;
 import io.restassured.response.Response;
 import oidc.AbstractIntegrationTest;
 import org.junit.Test;
@@ -15,6 +16,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.List;
 import java.util.Map;
 
 import static com.nimbusds.oauth2.sdk.http.HTTPRequest.Method.POST;
@@ -120,6 +122,66 @@ public class IntrospectEndpointTest extends AbstractIntegrationTest {
         assertEquals("Invalid user / secret", result.get("details"));
     }
 
+    @Test
+    public void batchIntrospection() throws IOException {
+        String accessToken = getAccessToken();
+        String expiredAccessToken = getAccessToken();
+        expireAccessToken(expiredAccessToken);
+        String clientCredentialsAccessToken = (String) doToken(null, "mock-sp", "secret", GrantType.CLIENT_CREDENTIALS)
+                .get("access_token");
+        String code = getCode(doAuthorize("mock-rp", "code", null, null, null));
+        String notAllowedAccessToken = (String) doToken(code, "mock-rp", "secret", GrantType.AUTHORIZATION_CODE).get("access_token");
+
+        List<Map<String, Object>> results = given()
+                .when()
+                .header("Content-type", "application/x-www-form-urlencoded")
+                .auth()
+                .preemptive()
+                .basic("mock-sp", "secret")
+                .formParam("token", accessToken, expiredAccessToken, clientCredentialsAccessToken, "nope",
+                        notAllowedAccessToken, accessToken)
+                .post("oidc/introspect/batch")
+                .as(new TypeRef<List<Map<String, Object>>>() {
+                });
+
+        assertEquals(6, results.size());
+        assertEquals(callIntrospection("mock-sp", accessToken, "secret"), results.get(0));
+        assertEquals(false, results.get(1).get("active"));
+        assertEquals(true, results.get(2).get("active"));
+        assertEquals("mock-sp", results.get(2).get("sub"));
+        assertEquals(false, results.get(3).get("active"));
+        assertEquals(false, results.get(4).get("active"));
+        assertEquals(results.get(0), results.get(5));
+    }
+
+    @Test
+    public void batchIntrospectionNoTokens() {
+        Map<String, Object> result = given()
+                .when()
+                .header("Content-type", "application/x-www-form-urlencoded")
+                .auth()
+                .preemptive()
+                .basic("mock-sp", "secret")
+                .formParam("grant_type", "nope")
+                .post("oidc/introspect/batch")
+                .as(mapTypeRef);
+        assertEquals(400, result.get("status"));
+    }
+
+    @Test
+    public void batchIntrospectionWrongSecret() throws IOException {
+        Map<String, Object> result = given()
+                .when()
+                .header("Content-type", "application/x-www-form-urlencoded")
+                .auth()
+                .preemptive()
+                .basic("mock-sp", "nope")
+                .formParam("token", getAccessToken())
+                .post("oidc/introspect/batch")
+                .as(mapTypeRef);
+        assertEquals("Invalid user / secret", result.get("details"));
+    }
+
     private Map<String, Object> doIntrospection(String clientId, String secret) throws IOException {
         String accessToken = getAccessToken();
         return callIntrospection(clientId, accessToken, secret);
@@ -0,0 +1,142 @@
+package oidc.endpoints;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.restassured.response.Response;
+import io.restassured.specification.RequestSpecification;
+import oidc.AbstractIntegrationTest;
+import oidc.model.OpenIDClient;
+import oidc.model.PushedAuthorizationRequest;
+import oidc.secure.SignedJWTTest;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PushedAuthorizationRequestEndpointTest extends AbstractIntegrationTest implements SignedJWTTest {
+
+    @Test
+    public void pushAndAuthorize() throws Exception {
+        Map<String, Object> body = push("mock-sp", "secret")
+                .then().statusCode(201).extract().as(mapTypeRef);
+        String requestURI = (String) body.get("request_uri");
+        assertTrue(requestURI.startsWith(PushedAuthorizationRequest.REQUEST_URI_PREFIX));
+        assertEquals(60, body.get("expires_in"));
+
+        MultiValueMap<String, String> queryParams = authorize("mock-sp", requestURI);
+        assertEquals("example", queryParams.getFirst("state"));
+
+        Map<String, Object> result = doToken(queryParams.getFirst("code"));
+        JWTClaimsSet claimsSet = processToken((String) result.get("id_token"), port);
+        assertEquals("nonce", claimsSet.getClaim("nonce"));
+    }
+
+    @Test
+    public void pushSignedJWT() throws Exception {
+        OpenIDClient client = openIDClient("mock-sp");
+        String keyID = getCertificateKeyIDFromCertificate(readFile("keys/certificate.crt"));
+        SignedJWT signedJWT = signedJWT(client.getClientId(), keyID, client.getRedirectUrls().get(0));
+        Map<String, Object> body = pushRequest("mock-sp", "secret")
+                .formParam("request", signedJWT.serialize())
+                .post("oidc/par")
+                .then().statusCode(201).extract().as(mapTypeRef);
+
+        MultiValueMap<String, String> queryParams = authorize("mock-sp", (String) body.get("request_uri"));
+        assertEquals("new", queryParams.getFirst("state"));
+
+        Map<String, Object> result = doToken(queryParams.getFirst("code"));
+        JWTClaimsSet claimsSet = processToken((String) result.get("id_token"), port);
+        assertEquals("123456", claimsSet.getClaim("nonce"));
+        assertEquals("john.doe@example.org", claimsSet.getClaim("email"));
+    }
+
+    @Test
+    public void requestURIUsedOnce() throws IOException {
+        Map<String, Object> body = push("mock-sp", "secret")
+                .then().statusCode(201).extract().as(mapTypeRef);
+        String requestURI = (String) body.get("request_uri");
+        authorize("mock-sp", requestURI);
+
+        Map<String, Object> error = authorizeResponse("mock-sp", requestURI).as(mapTypeRef);
+        assertEquals(400, error.get("status"));
+        assertEquals("invalid_request_uri", error.get("error"));
+    }
+
+    @Test
+    public void requestURIOfOtherClient() throws IOException {
+        Map<String, Object> body = push("mock-sp", "secret")
+                .then().statusCode(201).extract().as(mapTypeRef);
+
+        String requestURI = (String) body.get("request_uri");
+
+        Map<String, Object> error = authorizeResponse("mock-rp", requestURI).as(mapTypeRef);
+        assertEquals("invalid_request_uri", error.get("error"));
+        //another client can not use up the request_uri
+        assertEquals("example", authorize("mock-sp", requestURI).getFirst("state"));
+    }
+
+    @Test
+    public void pushWithRequestURI() throws IOException {
+        Map<String, Object> body = pushRequest("mock-sp", "secret")
+                .formParam("request_uri", "http://localhost:8089/request")
+                .post("oidc/par")
+                .as(mapTypeRef);
+        assertEquals(400, body.get("status"));
+        assertEquals("invalid_request_uri", body.get("error"));
+    }
+
+    @Test
+    public void pushWithInvalidSecret() throws IOException {
+        Map<String, Object> body = push("mock-sp", "nope").as(mapTypeRef);
+        assertEquals("Invalid user / secret", body.get("details"));
+    }
+
+    @Test
+    public void pushWithInvalidRedirectURI() throws IOException {
+        Map<String, Object> body = pushRequest("mock-sp", "secret")
+                .formParam("redirect_uri", "http://nope")
+                .post("oidc/par")
+                .as(mapTypeRef);
+        assertEquals("invalid_request_uri", body.get("error"));
+        assertEquals(0, mongoTemplate.count(new Query(), PushedAuthorizationRequest.class));
+    }
+
+    private Response push(String clientId, String secret) throws IOException {
+        return pushRequest(clientId, secret).post("oidc/par");
+    }
+
+    private RequestSpecification pushRequest(String clientId, String secret) throws IOException {
+        return given()
+                .when()
+                .header("Content-type", "application/x-www-form-urlencoded")
+                .auth().preemptive().basic(clientId, secret)
+                .formParam("client_id", clientId)
+                .formParam("scope", "openid")
+                .formParam("response_type", "code")
+                .formParam("state", "example")
+                .formParam("nonce", "nonce")
+                .formParam("redirect_uri", openIDClient(clientId).getRedirectUrls().get(0));
+    }
+
+    private MultiValueMap<String, String> authorize(String clientId, String requestURI) {
+        String location = authorizeResponse(clientId, requestURI).getHeader("Location");
+        assertNotNull(location);
+        return UriComponentsBuilder.fromUriString(location).build().getQueryParams();
+    }
+
+    private Response authorizeResponse(String clientId, String requestURI) {
+        return given().redirects().follow(false)
+                .when()
+                .queryParam("client_id", clientId)
+                .queryParam("request_uri", requestURI)
+                .get("oidc/authorize");
+    }
+}
@@ -1,8 +1,12 @@
 package oidc.endpoints;
 
 import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
 import com.nimbusds.jose.proc.BadJOSEException;
 import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.oauth2.sdk.GrantType;
 import com.nimbusds.oauth2.sdk.pkce.CodeChallenge;
 import com.nimbusds.oauth2.sdk.pkce.CodeChallengeMethod;
@@ -11,8 +15,11 @@ import io.restassured.response.Response;
 import io.restassured.specification.RequestSpecification;
 import oidc.AbstractIntegrationTest;
 import oidc.model.AccessToken;
+import oidc.model.OpenIDClient;
 import oidc.model.RefreshToken;
+import oidc.model.TokenHash;
 import oidc.model.User;
+import oidc.secure.SignedJWTTest;
 import oidc.secure.TokenGenerator;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
@@ -30,6 +37,7 @@ import java.security.NoSuchProviderException;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -42,7 +50,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @SuppressWarnings("unchecked")
-public class TokenEndpointTest extends AbstractIntegrationTest {
+public class TokenEndpointTest extends AbstractIntegrationTest implements SignedJWTTest {
 
     @Autowired
     private TokenGenerator tokenGenerator;
@@ -77,13 +85,13 @@ public class TokenEndpointTest extends AbstractIntegrationTest {
         String code = doAuthorize();
         String accessToken = (String) doToken(code).get("access_token");
 
-        assertEquals(1, mongoTemplate.find(Query.query(Criteria.where("innerValue").is(accessToken)), AccessToken.class).size());
+        assertEquals(1, mongoTemplate.find(Query.query(Criteria.where("_id").is(TokenHash.sha256(accessToken))), AccessToken.class).size());
 
         Map<String, Object> body = doToken(code);
         assertEquals(401, body.get("status"));
         assertEquals("Authorization code already used", body.get("message"));
 
-        assertEquals(0, mongoTemplate.find(Query.query(Criteria.where("innerValue").is(accessToken)), AccessToken.class).size());
+        assertEquals(0, mongoTemplate.find(Query.query(Criteria.where("_id").is(TokenHash.sha256(accessToken))), AccessToken.class).size());
     }
 
     @Test
@@ -316,7 +324,51 @@ public class TokenEndpointTest extends AbstractIntegrationTest {
     }
 
     @Test
-    public void unsupportedClientAuthentication() throws JOSEException, IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    public void privateKeyJWTClientAuthentication() throws Exception {
+        String code = doAuthorize();
+        OpenIDClient client = openIDClient("mock-sp");
+        SignedJWT clientAssertion = clientAssertion("mock-sp", getCertificateKeyID(client), issuer,
+                new Date(System.currentTimeMillis() + 60_000L));
+        Map<String, Object> body = given()
+                .when()
+                .header("Content-type", "application/x-www-form-urlencoded")
+                .formParam("client_assertion_type", CLIENT_ASSERTION_TYPE)
+                .formParam("client_assertion", clientAssertion.serialize())
+                .formParam("grant_type", GrantType.AUTHORIZATION_CODE.getValue())
+                .formParam("redirect_uri", client.getRedirectUrls().get(0))
+                .formParam("code", code)
+                .post("oidc/token")
+                .as(mapTypeRef);
+        assertNotNull(body.get("access_token"));
+    }
+
+    @Test
+    public void replayedPrivateKeyJWTClientAuthentication() throws Exception {
+        OpenIDClient client = openIDClient("mock-sp");
+        SignedJWT clientAssertion = clientAssertion("mock-sp", getCertificateKeyID(client), issuer,
+                new Date(System.currentTimeMillis() + 60_000L));
+        Map<String, Object> body = privateKeyJWTTokenRequest(client, clientAssertion, doAuthorize());
+        assertNotNull(body.get("access_token"));
+
+        body = privateKeyJWTTokenRequest(client, clientAssertion, doAuthorize());
+        assertEquals("Invalid user / secret", body.get("message"));
+    }
+
+    private Map<String, Object> privateKeyJWTTokenRequest(OpenIDClient client, SignedJWT clientAssertion, String code) {
+        return given()
+                .when()
+                .header("Content-type", "application/x-www-form-urlencoded")
+                .formParam("client_assertion_type", CLIENT_ASSERTION_TYPE)
+                .formParam("client_assertion", clientAssertion.serialize())
+                .formParam("grant_type", GrantType.AUTHORIZATION_CODE.getValue())
+                .formParam("redirect_uri", client.getRedirectUrls().get(0))
+                .formParam("code", code)
+                .post("oidc/token")
+                .as(mapTypeRef);
+    }
+
+    @Test
+    public void invalidPrivateKeyJWTClientAuthentication() throws JOSEException, IOException, NoSuchProviderException, NoSuchAlgorithmException {
         String code = doAuthorize();
         String idToken = tokenGenerator.generateIDTokenForTokenEndpoint(
                 Optional.of(user(issuer)),
@@ -333,7 +385,30 @@ public class TokenEndpointTest extends AbstractIntegrationTest {
                 .formParam("code", code)
                 .post("oidc/token")
                 .as(mapTypeRef);
-        assertEquals("Unsupported 'class com.nimbusds.oauth2.sdk.auth.PrivateKeyJWT' findByClientId authentication in token endpoint",
+        assertEquals("Invalid user / secret", body.get("message"));
+    }
+
+    @Test
+    public void unsupportedClientAuthentication() throws JOSEException, IOException {
+        String code = doAuthorize();
+        JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+                .issuer("mock-sp")
+                .subject("mock-sp")
+                .audience(issuer)
+                .expirationTime(new Date(System.currentTimeMillis() + 60_000L))
+                .build();
+        SignedJWT clientAssertion = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        clientAssertion.sign(new MACSigner(StringUtils.repeat("secret", 6)));
+        Map<String, Object> body = given()
+                .when()
+                .header("Content-type", "application/x-www-form-urlencoded")
+                .formParam("client_assertion_type", CLIENT_ASSERTION_TYPE)
+                .formParam("client_assertion", clientAssertion.serialize())
+                .formParam("grant_type", GrantType.AUTHORIZATION_CODE.getValue())
+                .formParam("code", code)
+                .post("oidc/token")
+                .as(mapTypeRef);
+        assertEquals("Unsupported 'class com.nimbusds.oauth2.sdk.auth.ClientSecretJWT' findByClientId authentication in token endpoint",
                 body.get("message"));
     }
 
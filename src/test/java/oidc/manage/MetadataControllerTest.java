@@ -3,9 +3,11 @@ package oidc.manage;
 import oidc.AbstractIntegrationTest;
 import oidc.model.OpenIDClient;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -17,11 +19,16 @@ import java.util.stream.Collectors;
 import static io.restassured.RestAssured.given;
 import static oidc.manage.ServiceProviderTranslation.translateServiceProviderEntityId;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 @SuppressWarnings("unchecked")
 @ActiveProfiles(value = "nope", inheritProfiles = false)
+@TestPropertySource(properties = "manage.batch-size=3")
 public class MetadataControllerTest extends AbstractIntegrationTest {
 
+    @Autowired
+    private OpenIDClientCache openIDClientCache;
+
     @Test
     public void connections() throws IOException {
         mongoTemplate.remove(new Query(), OpenIDClient.class);
@@ -49,6 +56,34 @@ public class MetadataControllerTest extends AbstractIntegrationTest {
         openIDClient = mongoTemplate.find(Query.query(Criteria.where("clientId")
                 .is(translateServiceProviderEntityId("mock-rp"))), OpenIDClient.class).get(0);
         assertEquals("changed", openIDClient.getName());
+
+        assertEquals("changed", openIDClientCache.findByClientId("changed").getClientId());
+    }
+
+    @Test
+    public void incrementalProvisioning() throws IOException {
+        mongoTemplate.remove(new Query(), OpenIDClient.class);
+        List<Map<String, Object>> serviceProviders = relyingParties();
+        postConnections(serviceProviders);
+
+        String version = sequenceRepository.currentOpenIDClientVersion();
+        OpenIDClient mockSp = findByClientId("mock-sp");
+        OpenIDClient mockRp = findByClientId(translateServiceProviderEntityId("mock-rp"));
+
+        postConnections(serviceProviders);
+        assertEquals(version, sequenceRepository.currentOpenIDClientVersion());
+
+        ((Map) Map.class.cast(serviceProviders.get(1).get("data")).get("metaDataFields")).put("name:en", "changed");
+        postConnections(serviceProviders.subList(1, serviceProviders.size()));
+
+        assertNotEquals(version, sequenceRepository.currentOpenIDClientVersion());
+        assertEquals(3L, mongoTemplate.count(new Query(), OpenIDClient.class));
+        assertEquals(0, mongoTemplate.find(Query.query(Criteria.where("clientId").is(mockSp.getClientId())), OpenIDClient.class).size());
+
+        OpenIDClient changedMockRp = findByClientId(mockRp.getClientId());
+        assertEquals(mockRp.getId(), changedMockRp.getId());
+        assertEquals("changed", changedMockRp.getName());
+        assertNotEquals(mockRp.getContentHash(), changedMockRp.getContentHash());
     }
 
     @Test
@@ -61,6 +96,10 @@ public class MetadataControllerTest extends AbstractIntegrationTest {
         assertEquals(Arrays.asList("mock-rp", "mock-sp", "playground_client", "resource-server-playground-client"), clientIds);
     }
 
+    private OpenIDClient findByClientId(String clientId) {
+        return mongoTemplate.findOne(Query.query(Criteria.where("clientId").is(clientId)), OpenIDClient.class);
+    }
+
     private void postConnections(List<Map<String, Object>> serviceProviders) throws IOException {
         doPostConnections(serviceProviders, 201, false);
     }
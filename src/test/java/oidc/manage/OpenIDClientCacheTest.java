@@ -0,0 +1,114 @@
+package oidc.manage;
+
+import oidc.model.OpenIDClient;
+import oidc.repository.OpenIDClientRepository;
+import oidc.repository.SequenceRepository;
+import org.junit.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OpenIDClientCacheTest {
+
+    private OpenIDClientRepository openIDClientRepository = mock(OpenIDClientRepository.class);
+    private SequenceRepository sequenceRepository = mock(SequenceRepository.class);
+
+    private OpenIDClientCache subject = new OpenIDClientCache(openIDClientRepository, sequenceRepository, Long.MAX_VALUE / 1000L);
+
+    @Test
+    public void findByClientId() {
+        when(sequenceRepository.currentOpenIDClientVersion()).thenReturn("v1");
+        when(openIDClientRepository.findAll()).thenReturn(clients("mock-sp", "mock-rp"));
+
+        assertEquals("mock-sp", subject.findByClientId("mock-sp").getClientId());
+        assertEquals("mock-rp", subject.findByClientId("mock-rp").getClientId());
+
+        verify(openIDClientRepository, times(1)).findAll();
+    }
+
+    @Test
+    public void findByClientIdAfterPushOnOtherNode() {
+        when(sequenceRepository.currentOpenIDClientVersion()).thenReturn("v1", "v2");
+        when(openIDClientRepository.findAll()).thenReturn(clients("mock-sp"), clients("mock-sp", "new-rp"));
+
+        assertEquals("mock-sp", subject.findByClientId("mock-sp").getClientId());
+        assertEquals("new-rp", subject.findByClientId("new-rp").getClientId());
+    }
+
+    @Test(expected = EmptyResultDataAccessException.class)
+    public void findByClientIdUnknown() {
+        when(sequenceRepository.currentOpenIDClientVersion()).thenReturn("v1");
+        when(openIDClientRepository.findAll()).thenReturn(clients("mock-sp"));
+
+        subject.findByClientId("nope");
+    }
+
+    @Test
+    public void findByClientIdUnknownChecksVersionOncePerInterval() {
+        when(sequenceRepository.currentOpenIDClientVersion()).thenReturn("v1");
+        when(openIDClientRepository.findAll()).thenReturn(clients("mock-sp"));
+
+        IntStream.range(0, 10).forEach(i -> {
+            try {
+                subject.findByClientId("nope" + i);
+                fail();
+            } catch (EmptyResultDataAccessException e) {
+                //expected
+            }
+        });
+        //the initial load and the first miss
+        verify(sequenceRepository, times(2)).currentOpenIDClientVersion();
+    }
+
+    @Test
+    public void findAllByClientIds() {
+        when(sequenceRepository.currentOpenIDClientVersion()).thenReturn("v1");
+        when(openIDClientRepository.findAll()).thenReturn(clients("mock-sp", "mock-rp"));
+
+        List<String> clientIds = subject.findAllByClientIds(asList("mock-rp", "nope", "mock-sp")).stream()
+                .map(OpenIDClient::getClientId)
+                .collect(Collectors.toList());
+        assertEquals(asList("mock-rp", "mock-sp"), clientIds);
+
+        verify(openIDClientRepository, times(1)).findAll();
+    }
+
+    @Test
+    public void refresh() {
+        when(sequenceRepository.currentOpenIDClientVersion()).thenReturn("v1", "v1", "v2");
+        when(openIDClientRepository.findAll()).thenReturn(clients("mock-sp"), clients("pushed-rp"));
+        subject.findByClientId("mock-sp");
+
+        subject.refresh();
+        verify(openIDClientRepository, times(1)).findAll();
+
+        subject.refresh();
+        assertEquals("pushed-rp", subject.findByClientId("pushed-rp").getClientId());
+        verify(openIDClientRepository, times(2)).findAll();
+    }
+
+    private List<OpenIDClient> clients(String... entityIds) {
+        return asList(entityIds).stream().map(entityId -> {
+            Map<String, Object> metaDataFields = new HashMap<>();
+            metaDataFields.put("scopes", Collections.singletonList("openid"));
+            metaDataFields.put("grants", Collections.singletonList("authorization_code"));
+            Map<String, Object> data = new HashMap<>();
+            data.put("entityid", entityId);
+            data.put("metaDataFields", metaDataFields);
+            return new OpenIDClient(Collections.singletonMap("data", data));
+        }).collect(Collectors.toList());
+    }
+}
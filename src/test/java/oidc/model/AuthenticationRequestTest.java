@@ -0,0 +1,28 @@
+package oidc.model;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuthenticationRequestTest {
+
+    @Test
+    public void isVerifiedRequestFor() {
+        AuthenticationRequest authenticationRequest = new AuthenticationRequest("id", new Date(), "http://localhost",
+                "client_id=mock-sp&scope=openid", TokenHash.sha256("request"));
+
+        assertTrue(authenticationRequest.isVerifiedRequestFor("request"));
+        assertFalse(authenticationRequest.isVerifiedRequestFor("other"));
+        assertFalse(authenticationRequest.isVerifiedRequestFor(null));
+    }
+
+    @Test
+    public void isVerifiedRequestForWithoutRequestObject() {
+        AuthenticationRequest authenticationRequest = new AuthenticationRequest("id", new Date(), "http://localhost");
+
+        assertFalse(authenticationRequest.isVerifiedRequestFor("request"));
+    }
+}
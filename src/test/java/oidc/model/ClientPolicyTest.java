@@ -0,0 +1,61 @@
+package oidc.model;
+
+import com.nimbusds.oauth2.sdk.GrantType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ClientPolicyTest {
+
+    private OpenIDClient client = new OpenIDClient("clientId",
+            Arrays.asList("http://localhost/first", "http://localhost/second"),
+            Collections.singletonList("groups"),
+            Arrays.asList("authorization_code", "refresh_token"));
+
+    @Test
+    public void redirectUrls() {
+        ClientPolicy policy = client.getPolicy();
+
+        assertEquals("http://localhost/first", policy.getDefaultRedirectUrl());
+        assertTrue(policy.isRedirectUrlAllowed("http://localhost/second"));
+        assertFalse(policy.isRedirectUrlAllowed("http://localhost/nope"));
+    }
+
+    @Test
+    public void scopes() {
+        ClientPolicy policy = client.getPolicy();
+
+        assertEquals(Collections.emptyList(), policy.getMissingScopes(Arrays.asList("groups", "email", "profile")));
+        assertEquals(Collections.singletonList("nope"), policy.getMissingScopes(Arrays.asList("groups", "nope")));
+    }
+
+    @Test
+    public void grants() {
+        ClientPolicy policy = client.getPolicy();
+
+        assertTrue(policy.isGrantAllowed(GrantType.AUTHORIZATION_CODE));
+        assertTrue(policy.isGrantAllowed(GrantType.REFRESH_TOKEN));
+        assertFalse(policy.isGrantAllowed(GrantType.IMPLICIT));
+    }
+
+    @Test
+    public void compiledOnce() {
+        assertSame(client.getPolicy(), client.getPolicy());
+    }
+
+    @Test
+    public void noRedirectUrls() {
+        ClientPolicy policy = new OpenIDClient("clientId", null, null, null).getPolicy();
+
+        assertNull(policy.getDefaultRedirectUrl());
+        assertFalse(policy.isRedirectUrlAllowed("http://localhost"));
+        assertFalse(policy.isGrantAllowed(GrantType.AUTHORIZATION_CODE));
+    }
+}
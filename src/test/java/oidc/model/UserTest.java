@@ -13,10 +13,14 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class UserTest implements TestUtils {
@@ -45,6 +49,17 @@ public class UserTest implements TestUtils {
         assertTrue(pre.equals(post));
     }
 
+    @Test
+    public void expiresInNotSerialized() throws IOException {
+        User user = new User("sub", "unspecifiedNameId", "http://mockidp", "clientId", new HashMap<>(), new ArrayList<>());
+        String json = objectMapper.writeValueAsString(user);
+        assertFalse(json.contains("expiresIn"));
+
+        User deserialized = objectMapper.readValue("{\"sub\":\"sub\",\"expiresIn\":1600000000000}", User.class);
+        assertEquals("sub", deserialized.getSub());
+        assertNull(deserialized.getExpiresIn());
+    }
+
     private User readUser(String path) throws IOException {
         return objectMapper.readValue(readFile(path).getBytes(), User.class);
     }
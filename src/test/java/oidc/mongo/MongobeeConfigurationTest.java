@@ -1,17 +1,198 @@
 package oidc.mongo;
 
 import oidc.AbstractIntegrationTest;
+import oidc.model.AccessToken;
+import oidc.model.AuthenticationRequest;
 import oidc.model.AuthorizationCode;
+import oidc.model.RefreshToken;
+import oidc.model.PushedAuthorizationRequest;
+import oidc.model.RevokedToken;
+import oidc.model.TokenHash;
+import oidc.model.UsedClientAssertion;
+import oidc.model.User;
+import oidc.repository.AccessTokenRepository;
+import oidc.repository.AuthorizationCodeRepository;
+import oidc.repository.RefreshTokenRepository;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class MongobeeConfigurationTest extends AbstractIntegrationTest {
 
     private MongobeeConfiguration subject = new MongobeeConfiguration();
 
+    @Autowired
+    private AccessTokenRepository accessTokenRepository;
+
+    @Autowired
+    private RefreshTokenRepository refreshTokenRepository;
+
+    @Autowired
+    private AuthorizationCodeRepository authorizationCodeRepository;
+
     @Test
     public void createCollections() {
         mongoTemplate.dropCollection(AuthorizationCode.class);
         mongoTemplate.dropCollection("dbchangelog");
         subject.createCollections(mongoTemplate);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void compactTokens() throws IOException {
+        String accessToken = legacyAccessToken();
+        insertLegacyRefreshToken("refresh", accessToken);
+
+        subject.compactTokens(mongoTemplate);
+
+        Document refreshToken = mongoTemplate.findOne(new Query(), Document.class, mongoTemplate.getCollectionName(RefreshToken.class));
+        assertEquals(accessToken, refreshToken.getString("accessTokenValue"));
+        assertEquals("sub", tokenGenerator.decryptUserInfo(refreshToken.getString("claims"), refreshToken.getString("claimKeyId")).getSub());
+    }
+
+    @Test
+    public void tokenHashAsId() throws IOException {
+        ObjectId authorizationCodeId = new ObjectId();
+        mongoTemplate.insert(new Document("_id", authorizationCodeId)
+                .append("code", "code")
+                .append("sub", "sub")
+                .append("expiresIn", new Date()), mongoTemplate.getCollectionName(AuthorizationCode.class));
+        String accessToken = legacyAccessToken();
+        mongoTemplate.insert(new Document("innerValue", accessToken)
+                .append("value", md5(accessToken))
+                .append("sub", "sub")
+                .append("clientCredentials", false)
+                .append("authorizationCodeId", authorizationCodeId.toHexString())
+                .append("expiresIn", new Date()), mongoTemplate.getCollectionName(AccessToken.class));
+        //already compacted by an earlier version of compactTokens
+        mongoTemplate.insert(new Document("value", md5("compacted")), mongoTemplate.getCollectionName(AccessToken.class));
+        insertLegacyRefreshToken("refresh", accessToken);
+        subject.compactTokens(mongoTemplate);
+
+        subject.tokenHashAsId(mongoTemplate);
+
+        AuthorizationCode authorizationCode = authorizationCodeRepository.findByCode("code");
+        assertEquals("sub", authorizationCode.getSub());
+
+        assertEquals(1, mongoTemplate.count(new Query(), AccessToken.class));
+        AccessToken migratedAccessToken = accessTokenRepository.findByValue(accessToken);
+        assertEquals("sub", migratedAccessToken.getSub());
+        assertNotNull(migratedAccessToken.getClaimKeyId());
+        assertEquals(1, accessTokenRepository.deleteByAuthorizationCodeId(authorizationCode.getId()).size());
+
+        RefreshToken refreshToken = refreshTokenRepository.findByValue("refresh");
+        assertArrayEquals(TokenHash.sha256(accessToken), refreshToken.getAccessTokenId());
+        assertEquals("sub", tokenGenerator.decryptUserInfo(refreshToken.getClaims(), refreshToken.getClaimKeyId()).getSub());
+
+        Document refreshTokenDocument = mongoTemplate.findOne(new Query(), Document.class, mongoTemplate.getCollectionName(RefreshToken.class));
+        assertFalse(refreshTokenDocument.containsKey("innerValue"));
+        assertFalse(refreshTokenDocument.containsKey("value"));
+        assertFalse(refreshTokenDocument.containsKey("accessTokenValue"));
+        assertFalse(mongoTemplate.indexOps(AccessToken.class).getIndexInfo().stream()
+                .anyMatch(indexInfo -> indexInfo.getName().equals("value_unique")));
+    }
+
+    @Test
+    public void createUsedClientAssertionTTLIndex() {
+        mongoTemplate.dropCollection(UsedClientAssertion.class);
+
+        subject.createUsedClientAssertionTTLIndex(mongoTemplate);
+
+        IndexInfo indexInfo = mongoTemplate.indexOps(UsedClientAssertion.class).getIndexInfo().stream()
+                .filter(info -> info.getName().equals("expiresIn_ttl"))
+                .findFirst().get();
+        assertEquals(Duration.ZERO, indexInfo.getExpireAfter().get());
+    }
+
+    @Test
+    public void createRevokedTokenRevokedAtIndex() {
+        subject.createRevokedTokenRevokedAtIndex(mongoTemplate);
+
+        assertTrue(mongoTemplate.indexOps(RevokedToken.class).getIndexInfo().stream()
+                .anyMatch(info -> info.getName().equals("revokedAt")));
+    }
+
+    private String legacyAccessToken() throws IOException {
+        User user = new User("sub", "unspecifiedNameId", "http://mockidp", "mock-sp", Collections.emptyMap(),
+                Collections.emptyList());
+        return tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, openIDClient("mock-sp"), Collections.singletonList("openid")).getValue();
+    }
+
+    private void insertLegacyRefreshToken(String value, String accessToken) {
+        mongoTemplate.remove(new Query(), RefreshToken.class);
+        mongoTemplate.insert(new Document("innerValue", value)
+                .append("value", md5(value))
+                .append("sub", "sub")
+                .append("accessTokenValue", accessToken)
+                .append("clientCredentials", false)
+                .append("expiresIn", new Date()), mongoTemplate.getCollectionName(RefreshToken.class));
+    }
+
+    @Test
+    public void createExpiresInTTLIndexes() {
+        subject.createExpiresInTTLIndexes(mongoTemplate);
+
+        Stream.of(AccessToken.class, RefreshToken.class, AuthorizationCode.class, AuthenticationRequest.class).forEach(clazz -> {
+            IndexInfo indexInfo = mongoTemplate.indexOps(clazz).getIndexInfo().stream()
+                    .filter(info -> info.getName().equals("expiresIn_ttl"))
+                    .findFirst().get();
+            assertEquals(Duration.ZERO, indexInfo.getExpireAfter().get());
+        });
+    }
+
+    @Test
+    public void createUserTTLIndex() {
+        mongoTemplate.remove(new Query(), User.class);
+        mongoTemplate.insert(new Document("sub", "sub"), mongoTemplate.getCollectionName(User.class));
+
+        subject.createUserTTLIndex(mongoTemplate);
+
+        assertNotNull(mongoTemplate.findOne(new Query(), User.class).getExpiresIn());
+        assertTrue(mongoTemplate.indexOps(User.class).getIndexInfo().stream()
+                .anyMatch(indexInfo -> indexInfo.getName().equals("expiresIn_ttl")));
+    }
+
+    @Test
+    public void createRevokedTokenTTLIndex() {
+        mongoTemplate.dropCollection(RevokedToken.class);
+
+        subject.createRevokedTokenTTLIndex(mongoTemplate);
+
+        IndexInfo indexInfo = mongoTemplate.indexOps(RevokedToken.class).getIndexInfo().stream()
+                .filter(info -> info.getName().equals("expiresIn_ttl"))
+                .findFirst().get();
+        assertEquals(Duration.ZERO, indexInfo.getExpireAfter().get());
+    }
+
+    @Test
+    public void createPushedAuthorizationRequestTTLIndex() {
+        mongoTemplate.dropCollection(PushedAuthorizationRequest.class);
+
+        subject.createPushedAuthorizationRequestTTLIndex(mongoTemplate);
+
+        IndexInfo indexInfo = mongoTemplate.indexOps(PushedAuthorizationRequest.class).getIndexInfo().stream()
+                .filter(info -> info.getName().equals("expiresIn_ttl"))
+                .findFirst().get();
+        assertEquals(Duration.ZERO, indexInfo.getExpireAfter().get());
+    }
+
+    private String md5(String value) {
+        return UUID.nameUUIDFromBytes(value.getBytes(Charset.defaultCharset())).toString();
+    }
+}
@@ -3,16 +3,15 @@ package oidc.repository;
 import oidc.AbstractIntegrationTest;
 import oidc.SeedUtils;
 import oidc.model.AccessToken;
+import oidc.model.TokenHash;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.test.util.ReflectionTestUtils;
 
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.Date;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class AccessTokenRepositoryTest extends AbstractIntegrationTest implements SeedUtils {
@@ -31,25 +30,14 @@ public class AccessTokenRepositoryTest extends AbstractIntegrationTest implement
     }
 
     @Test
-    public void findByInnerValue() {
+    public void findByHashedValue() {
         String value = RandomStringUtils.random(3200, true, true);
         accessTokenRepository.insert(accessToken(value, new Date()));
 
         AccessToken accessToken = accessTokenRepository.findByValue(value);
-        assertEquals(value, ReflectionTestUtils.getField(accessToken, "innerValue"));
+        assertArrayEquals(TokenHash.sha256(value), accessToken.getId());
 
         assertEquals(true, accessTokenRepository.findOptionalAccessTokenByValue(value).isPresent());
     }
 
-    @Test
-    public void deleteByExpiresInBefore() {
-        accessTokenRepository.deleteAll();
-        Date expiresIn = Date.from(LocalDateTime.now().minusDays(1).atZone(ZoneId.systemDefault()).toInstant());
-        accessTokenRepository.insert(accessToken("value", expiresIn));
-
-        long count = accessTokenRepository.deleteByExpiresInBefore(new Date());
-
-        assertEquals(1L, count);
-    }
-
 }
\ No newline at end of file
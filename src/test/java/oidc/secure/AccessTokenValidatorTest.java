@@ -0,0 +1,205 @@
+package oidc.secure;
+
+import oidc.model.AccessToken;
+import oidc.model.RevokedToken;
+import oidc.repository.AccessTokenRepository;
+import oidc.repository.RevokedTokenRepository;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AccessTokenValidatorTest {
+
+    private TokenGenerator tokenGenerator = mock(TokenGenerator.class);
+    private AccessTokenRepository accessTokenRepository = mock(AccessTokenRepository.class);
+    private RevokedTokenRepository revokedTokenRepository = mock(RevokedTokenRepository.class);
+
+    @Test
+    public void findByValueStateless() {
+        AccessTokenValidator subject = subject(true);
+        AccessToken accessToken = accessToken("value");
+        when(tokenGenerator.decodeAccessToken("value")).thenReturn(Optional.of(accessToken));
+
+        assertSame(accessToken, subject.findByValue("value"));
+        verify(accessTokenRepository, never()).findByValue(anyString());
+    }
+
+    @Test
+    public void findByValueOpaque() {
+        AccessTokenValidator subject = subject(true);
+        AccessToken accessToken = accessToken("opaque");
+        when(tokenGenerator.decodeAccessToken("opaque")).thenReturn(Optional.empty());
+        when(accessTokenRepository.findByValue("opaque")).thenReturn(accessToken);
+
+        assertSame(accessToken, subject.findByValue("opaque"));
+    }
+
+    @Test
+    public void findByValueDisabled() {
+        AccessTokenValidator subject = subject(false);
+        AccessToken accessToken = accessToken("value");
+        when(accessTokenRepository.findByValue("value")).thenReturn(accessToken);
+
+        assertSame(accessToken, subject.findByValue("value"));
+        verify(tokenGenerator, never()).decodeAccessToken(anyString());
+    }
+
+    @Test
+    public void revoke() {
+        AccessTokenValidator subject = subject(true);
+        AccessToken accessToken = accessToken("value");
+        AccessToken storedAccessToken = accessToken("value");
+        when(tokenGenerator.decodeAccessToken("value")).thenReturn(Optional.of(accessToken));
+        when(accessTokenRepository.findByValue("value")).thenReturn(storedAccessToken);
+
+        subject.revoke(Collections.singletonList(accessToken));
+
+        assertSame(storedAccessToken, subject.findByValue("value"));
+        verify(revokedTokenRepository).save(any(RevokedToken.class));
+        verify(tokenGenerator).evictDecodedAccessToken(accessToken.getId());
+    }
+
+    @Test
+    public void revokedOnOtherNode() {
+        AccessTokenValidator subject = subject(true);
+        AccessToken accessToken = accessToken("value");
+        when(tokenGenerator.decodeAccessToken("value")).thenReturn(Optional.of(accessToken));
+
+        assertSame(accessToken, subject.findByValue("value"));
+
+        when(revokedTokenRepository.findByRevokedAtGreaterThanEqual(any(Date.class)))
+                .thenReturn(Collections.singletonList(new RevokedToken(accessToken)));
+        when(accessTokenRepository.findByValue("value")).thenReturn(accessToken("value"));
+        subject.refreshRevocationFilter();
+
+        assertArrayEquals(accessToken.getId(), subject.findByValue("value").getId());
+        verify(accessTokenRepository).findByValue("value");
+        //only the initial rebuild, the revocations of the other node are loaded incrementally
+        verify(revokedTokenRepository, times(1)).findAll();
+    }
+
+    @Test
+    public void revokedOnTwoNodes() {
+        List<RevokedToken> revokedTokens = new ArrayList<>();
+        when(revokedTokenRepository.save(any(RevokedToken.class))).thenAnswer(invocation -> {
+            revokedTokens.add(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+        when(revokedTokenRepository.findAll()).thenAnswer(invocation -> new ArrayList<>(revokedTokens));
+        when(revokedTokenRepository.findByRevokedAtGreaterThanEqual(any(Date.class))).thenAnswer(invocation -> {
+            Date since = invocation.getArgument(0);
+            return revokedTokens.stream().filter(revokedToken -> !revokedToken.getRevokedAt().before(since)).collect(Collectors.toList());
+        });
+        AccessTokenValidator nodeA = subject(true);
+        AccessTokenValidator nodeB = subject(true);
+
+        AccessToken revokedOnA = accessToken("revokedOnA");
+        AccessToken revokedOnB = accessToken("revokedOnB");
+        when(tokenGenerator.decodeAccessToken("revokedOnA")).thenReturn(Optional.of(revokedOnA));
+        when(tokenGenerator.decodeAccessToken("revokedOnB")).thenReturn(Optional.of(revokedOnB));
+        AccessToken storedAccessToken = accessToken("revokedOnA");
+        when(accessTokenRepository.findByValue("revokedOnA")).thenReturn(storedAccessToken);
+
+        nodeA.revoke(Collections.singletonList(revokedOnA));
+        nodeB.revoke(Collections.singletonList(revokedOnB));
+        nodeB.refreshRevocationFilter();
+
+        assertSame(storedAccessToken, nodeB.findByValue("revokedOnA"));
+        //revoking never reloads the filter
+        verify(revokedTokenRepository, times(2)).findAll();
+    }
+
+    @Test
+    public void rebuiltWhenFull() {
+        AccessTokenValidator subject = subject(true, 60L, 1);
+
+        subject.refreshRevocationFilter();
+        verify(revokedTokenRepository, times(1)).findAll();
+
+        subject.revoke(Collections.singletonList(accessToken("value")));
+        subject.refreshRevocationFilter();
+        verify(revokedTokenRepository, times(2)).findAll();
+    }
+
+    @Test
+    public void rebuiltAfterInterval() {
+        AccessTokenValidator subject = subject(true, 0L, 100);
+
+        subject.refreshRevocationFilter();
+        verify(revokedTokenRepository, times(2)).findAll();
+    }
+
+    @Test
+    public void findByValueBeforeLoaded() {
+        AccessTokenValidator subject = new AccessTokenValidator(tokenGenerator, accessTokenRepository,
+                revokedTokenRepository, true, 60L, 100);
+        AccessToken accessToken = accessToken("value");
+        when(accessTokenRepository.findByValue("value")).thenReturn(accessToken);
+
+        assertSame(accessToken, subject.findByValue("value"));
+        verify(tokenGenerator, never()).decodeAccessToken(anyString());
+    }
+
+    @Test
+    public void findAllByValue() {
+        AccessTokenValidator subject = subject(true);
+        AccessToken signed = accessToken("signed");
+        AccessToken opaque = accessToken("opaque");
+        when(tokenGenerator.decodeAccessToken("signed")).thenReturn(Optional.of(signed));
+        when(tokenGenerator.decodeAccessToken("opaque")).thenReturn(Optional.empty());
+        when(tokenGenerator.decodeAccessToken("tampered")).thenThrow(new IllegalArgumentException("tampered"));
+        when(accessTokenRepository.findAllById(any())).thenReturn(Collections.singletonList(opaque));
+
+        Map<ByteBuffer, AccessToken> accessTokens = subject.findAllByValue(Arrays.asList("signed", "opaque", "tampered"));
+
+        assertEquals(2, accessTokens.size());
+        assertSame(signed, accessTokens.get(ByteBuffer.wrap(signed.getId())));
+        assertSame(opaque, accessTokens.get(ByteBuffer.wrap(opaque.getId())));
+    }
+
+    @Test
+    public void revokeDisabled() {
+        AccessTokenValidator subject = subject(false);
+        AccessToken accessToken = accessToken("value");
+
+        subject.revoke(Collections.singletonList(accessToken));
+
+        verify(tokenGenerator).evictDecodedAccessToken(accessToken.getId());
+        verify(revokedTokenRepository, never()).save(any(RevokedToken.class));
+    }
+
+    private AccessTokenValidator subject(boolean statelessEnabled) {
+        return subject(statelessEnabled, 60L, 100);
+    }
+
+    private AccessTokenValidator subject(boolean statelessEnabled, long rebuildIntervalMinutes, int expectedRevocations) {
+        AccessTokenValidator subject = new AccessTokenValidator(tokenGenerator, accessTokenRepository,
+                revokedTokenRepository, statelessEnabled, rebuildIntervalMinutes, expectedRevocations);
+        subject.onApplicationEvent(null);
+        return subject;
+    }
+
+    private AccessToken accessToken(String value) {
+        return new AccessToken(value, "sub", "clientId", Collections.singletonList("openid"), "signingKeyId",
+                "claimKeyId", new Date(System.currentTimeMillis() + 60 * 1000L), false, null);
+    }
+}
@@ -0,0 +1,78 @@
+package oidc.secure;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.Charset.defaultCharset;
+
+/**
+ * Compares creating the Aead primitive per operation with using a cached primitive as the TokenGenerator does.
+ * Not part of the test suite, run the main method from the IDE or with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AeadBenchmark {
+
+    private final byte[] associatedData = "4CEFFA8B-90DD-4737-8B04-6DA51C5B29AE".getBytes(defaultCharset());
+    private final byte[] plainText = ("{\"sub\":\"270E4CB4-1C2A-4A96-9AD3-F28C39AD1110\",\"clientId\":\"mock-sp\"," +
+            "\"attributes\":{\"email\":\"john.doe@example.org\",\"name\":\"John Doe\"}}").getBytes(defaultCharset());
+
+    private KeysetHandle keysetHandle;
+    private Aead aead;
+    private byte[] cipherText;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        AeadConfig.register();
+        keysetHandle = KeysetHandle.generateNew(AeadKeyTemplates.AES256_CTR_HMAC_SHA256);
+        aead = AeadFactory.getPrimitive(keysetHandle);
+        cipherText = aead.encrypt(plainText, associatedData);
+    }
+
+    @Benchmark
+    public byte[] encryptWithPrimitivePerOperation() throws GeneralSecurityException {
+        return AeadFactory.getPrimitive(keysetHandle).encrypt(plainText, associatedData);
+    }
+
+    @Benchmark
+    public byte[] encryptWithCachedPrimitive() throws GeneralSecurityException {
+        return aead.encrypt(plainText, associatedData);
+    }
+
+    @Benchmark
+    public byte[] decryptWithPrimitivePerOperation() throws GeneralSecurityException {
+        return AeadFactory.getPrimitive(keysetHandle).decrypt(cipherText, associatedData);
+    }
+
+    @Benchmark
+    public byte[] decryptWithCachedPrimitive() throws GeneralSecurityException {
+        return aead.decrypt(cipherText, associatedData);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AeadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,182 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import oidc.TestUtils;
+import oidc.model.OpenIDClient;
+import oidc.model.UsedClientAssertion;
+import oidc.repository.UsedClientAssertionRepository;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClientAssertionVerifierTest implements TestUtils, SignedJWTTest {
+
+    private static final String ISSUER = "https://org.openconext.oidc.ng";
+
+    private ClientJWKSetCache clientJWKSetCache = new ClientJWKSetCache(outboundFetcher(), 3600, 60);
+    private UsedClientAssertionRepository usedClientAssertionRepository = mock(UsedClientAssertionRepository.class);
+    private ClientAssertionVerifier subject = new ClientAssertionVerifier(clientJWKSetCache, usedClientAssertionRepository,
+            ISSUER, new ClassPathResource("openid-configuration.json"));
+
+    public ClientAssertionVerifierTest() throws IOException, ParseException {
+    }
+
+    @Test
+    public void matches() throws Exception {
+        OpenIDClient client = client("mock-sp");
+        String keyID = getCertificateKeyID(client);
+
+        assertTrue(subject.matches(clientAssertion("mock-sp", keyID, ISSUER, inFuture()), client));
+        assertTrue(subject.matches(clientAssertion("mock-sp", null, "http://localhost:8080/oidc/token", inFuture()), client));
+        assertEquals(1, clientJWKSetCache.size());
+    }
+
+    @Test
+    public void wrongAudience() throws Exception {
+        OpenIDClient client = client("mock-sp");
+
+        assertFalse(subject.matches(clientAssertion("mock-sp", null, "https://nope", inFuture()), client));
+    }
+
+    @Test
+    public void expired() throws Exception {
+        OpenIDClient client = client("mock-sp");
+
+        assertFalse(subject.matches(clientAssertion("mock-sp", null, ISSUER, new Date(System.currentTimeMillis() - 120_000L)), client));
+    }
+
+    @Test
+    public void otherClient() throws Exception {
+        OpenIDClient client = client("mock-sp");
+
+        assertFalse(subject.matches(clientAssertion("mock-rp", null, ISSUER, inFuture()), client));
+    }
+
+    @Test
+    public void noCertificate() throws Exception {
+        OpenIDClient client = client("mock-rp");
+
+        assertFalse(subject.matches(clientAssertion("mock-rp", null, ISSUER, inFuture()), client));
+        assertEquals(0, clientJWKSetCache.size());
+    }
+
+    @Test
+    public void invalidSignature() throws Exception {
+        OpenIDClient client = client("mock-sp");
+        SignedJWT assertion = clientAssertion("mock-sp", null, ISSUER, inFuture());
+        SignedJWT signedJWT = new SignedJWT(new JWSHeader.Builder(TokenGenerator.signingAlg).type(JOSEObjectType.JWT).build(),
+                assertion.getJWTClaimsSet());
+        signedJWT.sign(new RSASSASigner(new RSAKeyGenerator(2048).generate()));
+
+        assertFalse(subject.matches(signedJWT, client));
+    }
+
+    @Test
+    public void unsupportedAlgorithm() throws Exception {
+        OpenIDClient client = client("mock-sp");
+        SignedJWT assertion = clientAssertion("mock-sp", null, ISSUER, inFuture());
+        Base64URL header = Base64URL.encode("{\"alg\":\"" + UUID.randomUUID() + "\"}");
+        SignedJWT signedJWT = new SignedJWT(header, assertion.getPayload().toBase64URL(), assertion.getSignature());
+
+        assertFalse(subject.matches(signedJWT, client));
+        verify(usedClientAssertionRepository, never()).insert(any(UsedClientAssertion.class));
+
+        ClientVerifier verifier = clientJWKSetCache.getVerifier(client, false);
+        for (JWSAlgorithm algorithm : Arrays.asList(JWSAlgorithm.HS256, signedJWT.getHeader().getAlgorithm())) {
+            try {
+                verifier.selectKeys(new JWSHeader(algorithm));
+                fail();
+            } catch (JOSEException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void replayed() throws Exception {
+        OpenIDClient client = client("mock-sp");
+        SignedJWT assertion = clientAssertion("mock-sp", null, ISSUER, inFuture());
+        when(usedClientAssertionRepository.insert(any(UsedClientAssertion.class)))
+                .thenReturn(null)
+                .thenThrow(new DuplicateKeyException("duplicate"));
+
+        assertTrue(subject.matches(assertion, client));
+        assertFalse(subject.matches(assertion, client));
+    }
+
+    @Test
+    public void noJwtID() throws Exception {
+        OpenIDClient client = client("mock-sp");
+
+        assertFalse(subject.matches(sign(claims("mock-sp").jwtID(null).build()), client));
+    }
+
+    @Test
+    public void longLived() throws Exception {
+        OpenIDClient client = client("mock-sp");
+        Date expirationTime = new Date(System.currentTimeMillis() + 3600_000L);
+
+        assertFalse(subject.matches(sign(claims("mock-sp").expirationTime(expirationTime).build()), client));
+    }
+
+    @Test
+    public void issuedInFuture() throws Exception {
+        OpenIDClient client = client("mock-sp");
+        Date issueTime = new Date(System.currentTimeMillis() + 120_000L);
+
+        assertTrue(subject.matches(sign(claims("mock-sp").build()), client));
+        assertFalse(subject.matches(sign(claims("mock-sp").issueTime(issueTime).build()), client));
+        assertFalse(subject.matches(sign(claims("mock-sp").notBeforeTime(issueTime).build()), client));
+    }
+
+    private JWTClaimsSet.Builder claims(String clientId) {
+        return new JWTClaimsSet.Builder()
+                .audience(ISSUER)
+                .expirationTime(inFuture())
+                .jwtID(UUID.randomUUID().toString())
+                .issuer(clientId)
+                .subject(clientId)
+                .issueTime(new Date());
+    }
+
+    private SignedJWT sign(JWTClaimsSet claimsSet) throws Exception {
+        SignedJWT signedJWT = new SignedJWT(new JWSHeader.Builder(TokenGenerator.signingAlg).type(JOSEObjectType.JWT).build(), claimsSet);
+        signedJWT.sign(new RSASSASigner(privateKey()));
+        return signedJWT;
+    }
+
+    private OpenIDClient client(String clientId) throws IOException {
+        return relyingParties().stream().map(OpenIDClient::new)
+                .filter(c -> c.getClientId().equals(clientId))
+                .findAny()
+                .orElseThrow(IllegalArgumentException::new);
+    }
+
+    private Date inFuture() {
+        return new Date(System.currentTimeMillis() + 60_000L);
+    }
+}
@@ -0,0 +1,76 @@
+package oidc.secure;
+
+import oidc.model.OpenIDClient;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClientSecretVerifierTest {
+
+    private BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4);
+
+    @Test
+    public void matches() {
+        ClientSecretVerifier subject = new ClientSecretVerifier(300, 10);
+        OpenIDClient client = client("secret");
+
+        assertTrue(subject.matches("secret", client));
+        assertEquals(1, subject.size());
+        assertTrue(subject.matches("secret", client));
+        assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void noMatch() {
+        ClientSecretVerifier subject = new ClientSecretVerifier(300, 10);
+
+        assertFalse(subject.matches("nope", client("secret")));
+        assertFalse(subject.matches("nope", client(null)));
+        assertEquals(0, subject.size());
+    }
+
+    @Test
+    public void secretChanged() {
+        ClientSecretVerifier subject = new ClientSecretVerifier(300, 10);
+
+        assertTrue(subject.matches("secret", client("secret")));
+        assertFalse(subject.matches("secret", client("changed")));
+        assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void expired() {
+        ClientSecretVerifier subject = new ClientSecretVerifier(0, 1);
+        OpenIDClient client = client("secret");
+
+        assertTrue(subject.matches("secret", client));
+        assertTrue(subject.matches("other", client("other")));
+        assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void disabled() {
+        ClientSecretVerifier subject = new ClientSecretVerifier(300, 0);
+
+        assertTrue(subject.matches("secret", client("secret")));
+        assertEquals(0, subject.size());
+    }
+
+    private OpenIDClient client(String secret) {
+        Map<String, Object> metaDataFields = new HashMap<>();
+        metaDataFields.put("secret", secret != null ? passwordEncoder.encode(secret) : null);
+        metaDataFields.put("scopes", Collections.singletonList("openid"));
+        metaDataFields.put("grants", Collections.singletonList("authorization_code"));
+        Map<String, Object> data = new HashMap<>();
+        data.put("entityid", "http://mock-rp");
+        data.put("metaDataFields", metaDataFields);
+        return new OpenIDClient(Collections.singletonMap("data", data));
+    }
+}
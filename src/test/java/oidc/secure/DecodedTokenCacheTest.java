@@ -0,0 +1,100 @@
+package oidc.secure;
+
+import oidc.model.TokenHash;
+import oidc.model.User;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DecodedTokenCacheTest {
+
+    private DecodedTokenCache subject = new DecodedTokenCache(100);
+
+    @Test
+    public void get() {
+        User user = user("sub");
+        subject.put(TokenHash.sha256("token"), user, 10, 2000L, 1000L);
+
+        assertSame(user, subject.get(TokenHash.sha256("token"), 1500L));
+        assertNull(subject.get(TokenHash.sha256("other"), 1500L));
+        assertEquals(10, subject.bytes());
+    }
+
+    @Test
+    public void expired() {
+        subject.put(TokenHash.sha256("token"), user("sub"), 10, 2000L, 1000L);
+
+        assertNull(subject.get(TokenHash.sha256("token"), 2000L));
+        assertEquals(0, subject.size());
+        assertEquals(0, subject.bytes());
+    }
+
+    @Test
+    public void bounded() {
+        subject.put(TokenHash.sha256("first"), user("first"), 60, 2000L, 1000L);
+        subject.put(TokenHash.sha256("second"), user("second"), 60, 3000L, 1000L);
+
+        assertEquals(1, subject.size());
+        assertNull(subject.get(TokenHash.sha256("second"), 1000L));
+
+        //expired entries make room for new ones
+        subject.put(TokenHash.sha256("second"), user("second"), 60, 3000L, 2000L);
+        assertEquals(1, subject.size());
+        assertEquals(60, subject.bytes());
+        assertEquals("second", subject.get(TokenHash.sha256("second"), 2000L).getSub());
+    }
+
+    @Test
+    public void fullWithoutExpiredEntries() {
+        subject.put(TokenHash.sha256("first"), user("first"), 60, 3000L, 1000L);
+        subject.put(TokenHash.sha256("second"), user("second"), 60, 4000L, 1000L);
+        assertEquals(1, subject.size());
+
+        //the earliest expiry has passed, the first entry is removed and the earliest expiry is the one of the second
+        subject.put(TokenHash.sha256("second"), user("second"), 60, 4000L, 3000L);
+        subject.put(TokenHash.sha256("third"), user("third"), 60, 5000L, 3500L);
+        assertEquals("second", subject.get(TokenHash.sha256("second"), 3500L).getSub());
+        assertNull(subject.get(TokenHash.sha256("third"), 3500L));
+
+        subject.put(TokenHash.sha256("third"), user("third"), 60, 5000L, 4000L);
+        assertEquals("third", subject.get(TokenHash.sha256("third"), 4000L).getSub());
+        assertEquals(60, subject.bytes());
+    }
+
+    @Test
+    public void tooLarge() {
+        subject.put(TokenHash.sha256("token"), user("sub"), 101, 2000L, 1000L);
+
+        assertEquals(0, subject.size());
+    }
+
+    @Test
+    public void evictAndClear() {
+        subject.put(TokenHash.sha256("first"), user("first"), 10, 2000L, 1000L);
+        subject.put(TokenHash.sha256("second"), user("second"), 10, 2000L, 1000L);
+
+        subject.evict(TokenHash.sha256("first"));
+        assertNull(subject.get(TokenHash.sha256("first"), 1000L));
+        assertEquals(10, subject.bytes());
+
+        subject.clear();
+        assertEquals(0, subject.size());
+        assertEquals(0, subject.bytes());
+    }
+
+    @Test
+    public void disabled() {
+        DecodedTokenCache disabled = new DecodedTokenCache(0);
+        disabled.put(TokenHash.sha256("token"), user("sub"), 10, 2000L, 1000L);
+
+        assertEquals(0, disabled.size());
+    }
+
+    private User user(String sub) {
+        return new User(sub, "unspecifiedNameId", "http://mockidp", "clientId", Collections.emptyMap(), Collections.emptyList());
+    }
+}
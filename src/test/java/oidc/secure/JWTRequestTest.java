@@ -42,15 +42,25 @@ import java.util.stream.Collectors;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class JWTRequestTest implements TestUtils, MapTypeReference, SignedJWTTest {
 
     @Rule
     public WireMockRule wireMockRule = new WireMockRule(8089);
 
+    private OutboundFetcher outboundFetcher = outboundFetcher();
+
+    private ClientJWKSetCache clientJWKSetCache = new ClientJWKSetCache(outboundFetcher, 3600, 60);
+
+    private JWTRequest subject = new JWTRequest(clientJWKSetCache, outboundFetcher);
+
 
     @Test
     public void parseWithCertificate() throws Exception {
@@ -70,6 +80,22 @@ public class JWTRequestTest implements TestUtils, MapTypeReference, SignedJWTTes
         doParse(client, keyID);
     }
 
+    @Test
+    public void verifierReusedUntilCertificateChanges() throws Exception {
+        OpenIDClient client = getClient();
+        setCertificateFields(client, getStrippedCertificate(), null, null);
+        String keyID = getCertificateKeyID(client);
+
+        doParse(client, keyID);
+        ClientVerifier verifier = clientJWKSetCache.getVerifier(client, false);
+        doParse(client, keyID);
+        assertSame(verifier, clientJWKSetCache.getVerifier(client, false));
+
+        setCertificateFields(client, readFile("keys/certificate.crt"), null, null);
+        doParse(client, keyID);
+        assertNotSame(verifier, clientJWKSetCache.getVerifier(client, false));
+    }
+
     @Test
     public void parseWithRequestUrl() throws Exception {
         OpenIDClient client = getClient();
@@ -110,6 +136,21 @@ public class JWTRequestTest implements TestUtils, MapTypeReference, SignedJWTTes
         doParse(client, "key_id");
     }
 
+    @Test
+    public void parseWithCertificateUrlCached() throws Exception {
+        OpenIDClient client = getClient();
+        setCertificateFields(client, null, "http://localhost:8089/certs", null);
+        stubFor(get(urlPathMatching("/certs")).willReturn(aResponse()
+                .withHeader("Content-Type", "application/json")
+                .withHeader("Cache-Control", "max-age=600")
+                .withBody(readFile("keys/rp_public_keys.json"))));
+
+        doParse(client, "key_id");
+        doParse(client, "key_id");
+
+        verify(1, getRequestedFor(urlPathMatching("/certs")));
+    }
+
     @Test
     public void parseWithDiscoveryUrl() throws Exception {
         OpenIDClient client = getClient();
@@ -176,7 +217,7 @@ public class JWTRequestTest implements TestUtils, MapTypeReference, SignedJWTTes
                 Collections.singletonList(new URI("http://localhost")),
                 true,
                 Collections.singletonMap("custom", Collections.singletonList("value")));
-        authenticationRequest = JWTRequest.parse(authenticationRequest, client);
+        authenticationRequest = subject.parse(authenticationRequest, client);
 
         assertEquals("login", authenticationRequest.getPrompt().toString());
     }
@@ -194,7 +235,7 @@ public class JWTRequestTest implements TestUtils, MapTypeReference, SignedJWTTes
     }
 
     private void callParse(OpenIDClient client, AuthenticationRequest authenticationRequest) throws Exception {
-        AuthenticationRequest parsed = JWTRequest.parse(authenticationRequest, client);
+        AuthenticationRequest parsed = subject.parse(authenticationRequest, client);
         assertEquals("openid groups", parsed.getScope().toString());
         assertEquals("123456", parsed.getNonce().getValue());
         assertEquals("new", parsed.getState().getValue());
@@ -0,0 +1,65 @@
+package oidc.secure;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import oidc.repository.SequenceRepository;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.messaging.Message;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class KeyRolloverListenerTest {
+
+    private TokenGenerator tokenGenerator = mock(TokenGenerator.class);
+    private MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+    private KeyRolloverListener subject = new KeyRolloverListener(tokenGenerator, mongoTemplate, true);
+
+    @Test
+    public void signingKeyRollover() {
+        subject.onMessage(message(SequenceRepository.SIGNING_KEY_ID));
+
+        verify(tokenGenerator).refreshSigningKeys();
+        verifyNoMoreInteractions(tokenGenerator);
+    }
+
+    @Test
+    public void symmetricKeyRollover() {
+        subject.onMessage(message(SequenceRepository.SYMMETRIC_KEY_ID));
+
+        verify(tokenGenerator).refreshSymmetricKeys();
+        verifyNoMoreInteractions(tokenGenerator);
+    }
+
+    @Test
+    public void otherSequence() {
+        subject.onMessage(message("nope"));
+
+        verifyZeroInteractions(tokenGenerator);
+    }
+
+    @Test
+    public void disabled() {
+        new KeyRolloverListener(tokenGenerator, mongoTemplate, false).onApplicationEvent(null);
+
+        verifyZeroInteractions(mongoTemplate);
+    }
+
+    private Message<ChangeStreamDocument<Document>, Document> message(String sequence) {
+        BsonDocument documentKey = new BsonDocument("_id", new BsonString(sequence));
+        ChangeStreamDocument<Document> changeStreamDocument = new ChangeStreamDocument<>(OperationType.UPDATE,
+                new BsonDocument(), null, null, null, documentKey, null, null);
+        Message<ChangeStreamDocument<Document>, Document> message = mock(Message.class);
+        when(message.getRaw()).thenReturn(changeStreamDocument);
+        return message;
+    }
+}
@@ -7,17 +7,24 @@ import oidc.model.SigningKey;
 import oidc.model.SymmetricKey;
 import org.junit.Test;
 import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.stream.IntStream;
 
 import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class KeyRolloverTest extends AbstractIntegrationTest implements SeedUtils {
 
@@ -27,7 +34,12 @@ public class KeyRolloverTest extends AbstractIntegrationTest implements SeedUtil
         final List<String> signingKeys = mongoTemplate.findAll(SigningKey.class).stream().map(SigningKey::getKeyId).sorted().collect(toList());
         assertEquals(3, signingKeys.size());
 
-        List<AccessToken> tokens = IntStream.rangeClosed(0, 10).mapToObj(i -> accessToken("val" + i, signingKeys.get(i % 2))).collect(toList());
+        String currentSigningKeyId = tokenGenerator.getCurrentSigningKeyIds().iterator().next();
+        List<String> previousSigningKeyIds = signingKeys.stream().filter(keyId -> !keyId.equals(currentSigningKeyId)).collect(toList());
+        backdate(previousSigningKeyIds, 2);
+        backdate(Collections.singletonList(currentSigningKeyId), 1);
+
+        List<AccessToken> tokens = IntStream.rangeClosed(0, 10).mapToObj(i -> accessToken("val" + i, previousSigningKeyIds.get(0))).collect(toList());
         mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, AccessToken.class)
                 .remove(new Query())
                 .insert(tokens)
@@ -36,9 +48,17 @@ public class KeyRolloverTest extends AbstractIntegrationTest implements SeedUtil
         KeyRollover keyRollover = new KeyRollover(tokenGenerator, mongoTemplate, true, sequenceRepository);
         keyRollover.rollover();
 
-        List<String> keys = mongoTemplate.findAll(SigningKey.class).stream().map(SigningKey::getKeyId).sorted().collect(toList());
-        //would expect 4, but one signing key is cleaned up as it is not used in
+        List<String> keys = mongoTemplate.findAll(SigningKey.class).stream().map(SigningKey::getKeyId).collect(toList());
+        //the expired key not used in access tokens is cleaned up, the previous key might still be used in ID tokens
         assertEquals(3, keys.size());
+        assertTrue(keys.contains(previousSigningKeyIds.get(0)));
+        assertTrue(keys.contains(currentSigningKeyId));
+        assertFalse(keys.contains(previousSigningKeyIds.get(1)));
+    }
+
+    private void backdate(List<String> keyIds, int years) {
+        Date created = Date.from(LocalDateTime.now().minusYears(years).atZone(ZoneId.systemDefault()).toInstant());
+        mongoTemplate.updateMulti(Query.query(Criteria.where("keyId").in(keyIds)), Update.update("created", created), SigningKey.class);
     }
 
     @Test
@@ -75,4 +95,25 @@ public class KeyRolloverTest extends AbstractIntegrationTest implements SeedUtil
         mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, SigningKey.class).remove(new Query()).execute();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void rolloverSymmetricKeysReferencedByAccessTokens() throws NoSuchProviderException, NoSuchAlgorithmException {
+        resetAndCreateSymmetricKeys(3);
+        List<SymmetricKey> symmetricKeys = mongoTemplate.findAll(SymmetricKey.class);
+        mongoTemplate.remove(new Query(), SigningKey.class);
+        mongoTemplate.insert(new AccessToken("value", "sub", "clientId", Collections.singletonList("openid"), "key_1",
+                symmetricKeys.get(1).getKeyId(), new Date(), false, null));
+
+        KeyRollover keyRollover = new KeyRollover(tokenGenerator, mongoTemplate, true, sequenceRepository);
+        keyRollover.doSymmetricKeyRollover();
+
+        List<String> keyIds = mongoTemplate.findAll(SymmetricKey.class).stream()
+                .map(SymmetricKey::getKeyId)
+                .sorted()
+                .collect(toList());
+
+        assertEquals(
+                Arrays.asList(symmetricKeys.get(1).getKeyId(), sequenceRepository.currentSymmetricKeyId()).stream().sorted().collect(toList()),
+                keyIds);
+    }
+
+}
@@ -0,0 +1,147 @@
+package oidc.secure;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboundFetcherTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(8089);
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private OutboundFetcher subject = new OutboundFetcher(500, 500, 1024, 2, 1, 2, 30, meterRegistry);
+
+    @Test
+    public void fetch() throws IOException {
+        stubFor(get(urlPathEqualTo("/certs")).withHeader("If-None-Match", equalTo("\"v1\"")).willReturn(aResponse()
+                .withHeader("ETag", "\"v2\"")
+                .withHeader("Cache-Control", "max-age=60")
+                .withBody("keys")));
+
+        OutboundFetcher.Response response = subject.fetch("http://localhost:8089/certs",
+                Collections.singletonMap("If-None-Match", "\"v1\""));
+
+        assertEquals(200, response.getStatus());
+        assertEquals("keys", response.getBody());
+        assertEquals("\"v2\"", response.getEtag());
+        assertEquals("max-age=60", response.getCacheControl());
+        assertEquals(1L, meterRegistry.get("oidc.outbound.requests").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    public void notFound() throws IOException {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withStatus(404)));
+
+        assertEquals(404, subject.fetch("http://localhost:8089/certs").getStatus());
+    }
+
+    @Test
+    public void readTimeout() {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withBody("keys").withFixedDelay(1500)));
+
+        assertIOException("http://localhost:8089/certs");
+    }
+
+    @Test
+    public void tooLarge() {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withBody(new String(new char[2048]))));
+
+        assertIOException("http://localhost:8089/certs");
+    }
+
+    @Test
+    public void unsupportedProtocol() {
+        assertIOException("file:///etc/passwd");
+    }
+
+    @Test
+    public void circuitBreaker() {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withStatus(500)));
+
+        assertIOException("http://localhost:8089/certs");
+        assertIOException("http://localhost:8089/certs");
+        assertIOException("http://localhost:8089/certs");
+
+        verify(2, getRequestedFor(urlPathEqualTo("/certs")));
+        assertEquals(1L, meterRegistry.get("oidc.outbound.requests").tag("outcome", "circuit_open").timer().count());
+    }
+
+    @Test
+    public void requestURICircuitBreaker() throws IOException {
+        stubFor(get(urlPathEqualTo("/request")).willReturn(aResponse().withStatus(500)));
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withBody("keys")));
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                subject.fetchRequestURI("http://localhost:8089/request");
+                fail();
+            } catch (IOException e) {
+                //expected
+            }
+        }
+        verify(2, getRequestedFor(urlPathEqualTo("/request")));
+        assertEquals(1L, meterRegistry.get("oidc.outbound.requests").tags("purpose", "request_uri", "outcome", "circuit_open").timer().count());
+
+        //the failing request_uri's of a host do not affect the client keys of the same host
+        assertEquals("keys", subject.fetch("http://localhost:8089/certs").getBody());
+    }
+
+    @Test
+    public void requestURIPoolSeparate() throws Exception {
+        stubFor(get(urlPathEqualTo("/request")).willReturn(aResponse().withBody("request").withFixedDelay(200)));
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withBody("keys")));
+
+        //fill the request_uri pool of one thread and its queue of four
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+        List<CompletableFuture<OutboundFetcher.Response>> requests = IntStream.range(0, 6)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> fetchRequestURI("http://localhost:8089/request"), callers))
+                .collect(Collectors.toList());
+        assertEquals("keys", subject.fetch("http://localhost:8089/certs").getBody());
+
+        long fetched = requests.stream().map(CompletableFuture::join).filter(Objects::nonNull).count();
+        callers.shutdown();
+        assertEquals(5L, fetched);
+        assertEquals(1L, meterRegistry.get("oidc.outbound.requests").tags("purpose", "request_uri", "outcome", "rejected").timer().count());
+    }
+
+    private OutboundFetcher.Response fetchRequestURI(String url) {
+        try {
+            return subject.fetchRequestURI(url);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void assertIOException(String url) {
+        try {
+            subject.fetch(url);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage() != null);
+        }
+    }
+}
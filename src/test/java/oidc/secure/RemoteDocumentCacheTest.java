@@ -0,0 +1,100 @@
+package oidc.secure;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RemoteDocumentCacheTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(8089);
+
+    private static final String URL = "http://localhost:8089/certs";
+
+    private OutboundFetcher outboundFetcher = new OutboundFetcher(1000, 1000, 64 * 1024, 4, 4, 5, 30, new SimpleMeterRegistry());
+
+    @Test
+    public void cached() throws IOException {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withBody("keys")));
+        RemoteDocumentCache subject = new RemoteDocumentCache(outboundFetcher, 60_000L, 3_600_000L);
+
+        String body = subject.get(URL, false);
+        assertSame(body, subject.get(URL, false));
+        //forced refreshes are rate limited by the minimum lifetime
+        assertSame(body, subject.get(URL, true));
+
+        verify(1, getRequestedFor(urlPathEqualTo("/certs")));
+    }
+
+    @Test
+    public void revalidateWithETag() throws IOException {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse()
+                .withHeader("ETag", "\"v1\"")
+                .withHeader("Cache-Control", "no-cache")
+                .withBody("keys")));
+        stubFor(get(urlPathEqualTo("/certs")).withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(304)));
+        RemoteDocumentCache subject = new RemoteDocumentCache(outboundFetcher, 0L, 3_600_000L);
+
+        String body = subject.get(URL, false);
+        assertSame(body, subject.get(URL, false));
+
+        verify(2, getRequestedFor(urlPathEqualTo("/certs")));
+        verify(1, getRequestedFor(urlPathEqualTo("/certs")).withHeader("If-None-Match",
+                equalTo("\"v1\"")));
+    }
+
+    @Test
+    public void staleOnError() throws IOException {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withBody("keys")));
+        RemoteDocumentCache subject = new RemoteDocumentCache(outboundFetcher, 0L, 3_600_000L);
+        subject.get(URL, false);
+
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withStatus(500)));
+
+        assertEquals("keys", subject.get(URL, true));
+    }
+
+    @Test(expected = IOException.class)
+    public void error() throws IOException {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withStatus(404)));
+        new RemoteDocumentCache(outboundFetcher, 0L, 3_600_000L).get(URL, false);
+    }
+
+    @Test
+    public void coalesced() throws Exception {
+        stubFor(get(urlPathEqualTo("/certs")).willReturn(aResponse().withBody("keys").withFixedDelay(250)));
+        RemoteDocumentCache subject = new RemoteDocumentCache(outboundFetcher, 60_000L, 3_600_000L);
+        ExecutorService executorService = Executors.newFixedThreadPool(5);
+
+        List<Callable<String>> tasks = IntStream.range(0, 5)
+                .mapToObj(i -> (Callable<String>) () -> subject.get(URL, false))
+                .collect(Collectors.toList());
+        for (Future<String> future : executorService.invokeAll(tasks)) {
+            assertEquals("keys", future.get());
+        }
+        executorService.shutdown();
+
+        verify(1, getRequestedFor(urlPathEqualTo("/certs")));
+    }
+}
@@ -0,0 +1,114 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.JWEObjectJSON;
+import com.nimbusds.jose.crypto.ECDHDecrypter;
+import com.nimbusds.jose.crypto.MultiDecrypter;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetSequenceKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import oidc.model.OpenIDClient;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResourceServerTokenEncrypterTest {
+
+    private ResourceServerTokenEncrypter subject = new ResourceServerTokenEncrypter();
+
+    @Test
+    public void encrypt() throws JOSEException, ParseException {
+        RSAKey rsaKey = new RSAKeyGenerator(2048).keyID("rs-key").generate();
+        ECKey ecKey = new ECKeyGenerator(Curve.P_256).generate();
+        List<OpenIDClient> recipients = Arrays.asList(resourceServer("rsa", rsaKey.toPublicJWK().toJSONString()),
+                resourceServer("ec", ecKey.toPublicJWK().toJSONString()));
+
+        JWEObjectJSON jweObject = JWEObjectJSON.parse(subject.encrypt(recipients, "{\"sub\":\"sub\"}",
+                Collections.singletonMap("ec", "{\"unspecified_id\":\"id\"}")));
+
+        assertEquals(2, jweObject.getRecipients().size());
+        JWEObjectJSON.Recipient rsaRecipient = jweObject.getRecipients().get(0);
+        assertEquals(JWEAlgorithm.RSA_OAEP_256.getName(), rsaRecipient.getUnprotectedHeader().getParam("alg"));
+        assertEquals("rs-key", rsaRecipient.getUnprotectedHeader().getKeyID());
+        assertNull(rsaRecipient.getUnprotectedHeader().getParam("claims"));
+        JWEObjectJSON.Recipient ecRecipient = jweObject.getRecipients().get(1);
+        assertEquals(JWEAlgorithm.ECDH_ES_A256KW.getName(), ecRecipient.getUnprotectedHeader().getParam("alg"));
+        //the EC key has no kid, so the thumbprint identifies the recipient
+        String thumbprint = ecKey.computeThumbprint().toString();
+        assertEquals(thumbprint, ecRecipient.getUnprotectedHeader().getKeyID());
+
+        jweObject.decrypt(new MultiDecrypter(rsaKey));
+        assertEquals("{\"sub\":\"sub\"}", jweObject.getPayload().toString());
+
+        JWEObjectJSON ecJWEObject = JWEObjectJSON.parse(jweObject.serializeGeneral());
+        ecJWEObject.decrypt(new MultiDecrypter(new ECKey.Builder(ecKey).keyID(thumbprint).build()));
+        assertEquals("{\"sub\":\"sub\"}", ecJWEObject.getPayload().toString());
+
+        JWEObject recipientClaims = JWEObject.parse((String) ecRecipient.getUnprotectedHeader().getParam("claims"));
+        assertEquals(JWEAlgorithm.ECDH_ES, recipientClaims.getHeader().getAlgorithm());
+        recipientClaims.decrypt(new ECDHDecrypter(ecKey));
+        assertEquals("{\"unspecified_id\":\"id\"}", recipientClaims.getPayload().toString());
+    }
+
+    @Test
+    public void encryptSingleRecipient() throws JOSEException, ParseException {
+        ECKey ecKey = new ECKeyGenerator(Curve.P_256).keyID("ec-key").generate();
+        List<OpenIDClient> recipients = Collections.singletonList(resourceServer("ec", ecKey.toPublicJWK().toJSONString()));
+
+        JWEObjectJSON jweObject = JWEObjectJSON.parse(subject.encrypt(recipients, "{\"sub\":\"sub\"}",
+                Collections.singletonMap("ec", "{\"unspecified_id\":\"id\"}")));
+
+        assertEquals(JWEAlgorithm.ECDH_ES_A256KW, jweObject.getHeader().getAlgorithm());
+        assertEquals("ec-key", jweObject.getHeader().getKeyID());
+        jweObject.decrypt(new MultiDecrypter(ecKey));
+        assertEquals("{\"sub\":\"sub\"}", jweObject.getPayload().toString());
+
+        JWEObject recipientClaims = JWEObject.parse((String) jweObject.getRecipients().get(0).getUnprotectedHeader().getParam("claims"));
+        recipientClaims.decrypt(new ECDHDecrypter(ecKey));
+        assertEquals("{\"unspecified_id\":\"id\"}", recipientClaims.getPayload().toString());
+    }
+
+    @Test
+    public void keyChanged() throws JOSEException, ParseException {
+        RSAKey oldKey = new RSAKeyGenerator(2048).keyID("old").generate();
+        RSAKey newKey = new RSAKeyGenerator(2048).keyID("new").generate();
+        subject.encrypt(Collections.singletonList(resourceServer("rsa", oldKey.toPublicJWK().toJSONString())), "{}",
+                Collections.emptyMap());
+
+        JWEObjectJSON jweObject = JWEObjectJSON.parse(subject.encrypt(
+                Collections.singletonList(resourceServer("rsa", newKey.toPublicJWK().toJSONString())), "{}", Collections.emptyMap()));
+
+        jweObject.decrypt(new MultiDecrypter(newKey));
+        assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void recipients() throws JOSEException {
+        OpenIDClient octet = resourceServer("octet", new OctetSequenceKeyGenerator(256).generate().toJSONString());
+        OpenIDClient invalid = resourceServer("invalid", "nope");
+        OpenIDClient rsa = resourceServer("rsa", new RSAKeyGenerator(2048).generate().toPublicJWK().toJSONString());
+
+        assertEquals(Collections.singletonList(rsa), subject.recipients(Arrays.asList(octet, invalid, rsa)));
+    }
+
+    private OpenIDClient resourceServer(String clientId, String accessTokenEncryptionKey) {
+        OpenIDClient resourceServer = new OpenIDClient(clientId, Collections.emptyList(),
+                Collections.singletonList("openid"), Collections.singletonList("authorization_code"));
+        ReflectionTestUtils.setField(resourceServer, "resourceServer", true);
+        ReflectionTestUtils.setField(resourceServer, "accessTokenEncryptionKey", accessTokenEncryptionKey);
+        return resourceServer;
+    }
+}
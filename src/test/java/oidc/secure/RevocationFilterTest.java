@@ -0,0 +1,53 @@
+package oidc.secure;
+
+import oidc.model.TokenHash;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RevocationFilterTest {
+
+    @Test
+    public void mightContain() {
+        RevocationFilter subject = new RevocationFilter(100, 0.01);
+        subject.add(TokenHash.sha256("revoked"));
+
+        assertTrue(subject.mightContain(TokenHash.sha256("revoked")));
+        assertFalse(subject.mightContain(TokenHash.sha256("valid")));
+        assertEquals(7, subject.numHashFunctions());
+    }
+
+    @Test
+    public void falsePositiveProbability() {
+        RevocationFilter subject = new RevocationFilter(10000, 0.01);
+        IntStream.range(0, 10000).forEach(i -> subject.add(TokenHash.sha256("revoked" + i)));
+
+        assertTrue(IntStream.range(0, 10000).allMatch(i -> subject.mightContain(TokenHash.sha256("revoked" + i))));
+        long falsePositives = IntStream.range(0, 10000).filter(i -> subject.mightContain(TokenHash.sha256("valid" + i))).count();
+        assertTrue(falsePositives < 200);
+    }
+
+    @Test
+    public void concurrentAdd() {
+        RevocationFilter subject = new RevocationFilter(1000, 0.01);
+        IntStream.range(0, 1000).parallel().forEach(i -> subject.add(TokenHash.sha256("revoked" + i)));
+
+        assertTrue(IntStream.range(0, 1000).allMatch(i -> subject.mightContain(TokenHash.sha256("revoked" + i))));
+    }
+
+    @Test
+    public void isFull() {
+        RevocationFilter subject = new RevocationFilter(2, 0.01);
+        subject.add(TokenHash.sha256("revoked1"));
+        subject.add(TokenHash.sha256("revoked1"));
+
+        assertFalse(subject.isFull());
+
+        subject.add(TokenHash.sha256("revoked2"));
+        assertTrue(subject.isFull());
+    }
+}
@@ -7,6 +7,7 @@ import com.nimbusds.jose.crypto.RSASSASigner;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.openid.connect.sdk.ClaimsRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import oidc.model.OpenIDClient;
 import org.apache.commons.io.IOUtils;
 import org.springframework.core.io.ClassPathResource;
@@ -32,6 +33,10 @@ import java.util.UUID;
 
 public interface SignedJWTTest {
 
+    default OutboundFetcher outboundFetcher() {
+        return new OutboundFetcher(1000, 1000, 64 * 1024, 4, 4, 5, 30, new SimpleMeterRegistry());
+    }
+
     default void setCertificateFields(OpenIDClient client, String signingCertificate, String signingCertificateUrl, String discoveryUrl) {
         ReflectionTestUtils.setField(client, "signingCertificate", signingCertificate);
         ReflectionTestUtils.setField(client, "signingCertificateUrl", signingCertificateUrl);
@@ -84,5 +89,20 @@ public interface SignedJWTTest {
         return signedJWT;
     }
 
+    default SignedJWT clientAssertion(String clientId, String keyID, String audience, Date expirationTime) throws Exception {
+        JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+                .audience(audience)
+                .expirationTime(expirationTime)
+                .jwtID(UUID.randomUUID().toString())
+                .issuer(clientId)
+                .subject(clientId)
+                .issueTime(new Date())
+                .build();
+        JWSHeader header = new JWSHeader.Builder(TokenGenerator.signingAlg).type(JOSEObjectType.JWT).keyID(keyID).build();
+        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
+        signedJWT.sign(new RSASSASigner(privateKey()));
+        return signedJWT;
+    }
+
 
 }
@@ -0,0 +1,130 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.Ed25519Verifier;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.ResponseType;
+import com.nimbusds.oauth2.sdk.id.State;
+import com.nimbusds.openid.connect.sdk.Nonce;
+import oidc.AbstractIntegrationTest;
+import oidc.model.EncryptedTokenValue;
+import oidc.model.OpenIDClient;
+import oidc.model.SigningKey;
+import oidc.model.User;
+import org.junit.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "spring.data.mongodb.uri=mongodb://127.0.0.1:27017/oidc_test",
+                "mongodb_db=oidc_test",
+                "cron.node-cron-job-responsible=false",
+                "keys.signing-algorithms=ES256, RS256, EdDSA"
+        })
+public class SigningAlgorithmsTest extends AbstractIntegrationTest {
+
+    @Test
+    public void rolloverSigningKeys() throws NoSuchProviderException, NoSuchAlgorithmException, ParseException {
+        resetAndCreateSigningKeys(2);
+        assertEquals(6, mongoTemplate.count(new Query(), SigningKey.class));
+
+        List<JWK> keys = JWKSet.parse(given().when().get("oidc/certs").asString()).getKeys();
+        assertEquals(6, keys.size());
+        assertEquals(3, tokenGenerator.getCurrentSigningKeyIds().size());
+    }
+
+    @Test
+    public void rolloverKeepsPreviousKeysOfAllAlgorithms() throws NoSuchProviderException, NoSuchAlgorithmException, ParseException {
+        resetAndCreateSigningKeys(1);
+        Collection<String> initialKeyIds = new ArrayList<>(tokenGenerator.getCurrentSigningKeyIds());
+
+        KeyRollover keyRollover = new KeyRollover(tokenGenerator, mongoTemplate, true, sequenceRepository);
+        keyRollover.rollover();
+        keyRollover.rollover();
+
+        //no access tokens reference the keys, but ID tokens signed with any of them have not expired yet
+        List<String> keyIds = mongoTemplate.findAll(SigningKey.class).stream().map(SigningKey::getKeyId).collect(Collectors.toList());
+        assertEquals(9, keyIds.size());
+        assertTrue(keyIds.containsAll(initialKeyIds));
+        assertEquals(9, JWKSet.parse(given().when().get("oidc/certs").asString()).getKeys().size());
+    }
+
+    @Test
+    public void accessTokenSignedWithDefaultAlgorithm() throws IOException, ParseException {
+        User user = new User("sub", "unspecifiedNameId", "http://mockidp", "clientId", Collections.singletonMap("email", "john@example.org"),
+                Collections.emptyList());
+        EncryptedTokenValue encryptedTokenValue = tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, openIDClient("mock-sp"), Collections.singletonList("openid"));
+
+        SignedJWT signedJWT = SignedJWT.parse(encryptedTokenValue.getValue());
+        assertEquals(JWSAlgorithm.ES256, signedJWT.getHeader().getAlgorithm());
+        assertEquals("sub", tokenGenerator.decryptAccessTokenWithEmbeddedUserInfo(encryptedTokenValue.getValue()).getSub());
+    }
+
+    @Test
+    public void idTokenSignedWithClientAlgorithm() throws IOException, ParseException, JOSEException, NoSuchProviderException, NoSuchAlgorithmException {
+        User user = new User("sub", "unspecifiedNameId", "http://mockidp", "clientId", Collections.emptyMap(),
+                Collections.emptyList());
+        String idToken = tokenGenerator.generateIDTokenForAuthorizationEndpoint(user, client("EdDSA"), new Nonce("nonce"),
+                new ResponseType("id_token", "token"), "access_token", Collections.emptyList(), Optional.empty(), new State("state"));
+
+        SignedJWT signedJWT = SignedJWT.parse(idToken);
+        assertEquals(JWSAlgorithm.EdDSA, signedJWT.getHeader().getAlgorithm());
+        assertNotNull(signedJWT.getJWTClaimsSet().getClaim("at_hash"));
+        assertEquals("sub", verifyEdDSASignedJWT(signedJWT).getSubject());
+    }
+
+    @Test
+    public void idTokenUnsupportedClientAlgorithm() throws ParseException, JOSEException, NoSuchProviderException, NoSuchAlgorithmException {
+        String idToken = tokenGenerator.generateIDTokenForTokenEndpoint(Optional.empty(), client("PS512"), "nonce",
+                Collections.emptyList(), Optional.empty());
+
+        assertEquals(JWSAlgorithm.ES256, SignedJWT.parse(idToken).getHeader().getAlgorithm());
+    }
+
+    @Test
+    public void wellKnownConfiguration() {
+        Map<String, Object> res = given().when().get("oidc/.well-known/openid-configuration").as(mapTypeRef);
+        assertEquals(Arrays.asList("ES256", "RS256", "EdDSA"), res.get("id_token_signing_alg_values_supported"));
+    }
+
+    private OpenIDClient client(String idTokenSignedResponseAlg) {
+        Map<String, Object> metaDataFields = new HashMap<>();
+        metaDataFields.put("id_token_signed_response_alg", idTokenSignedResponseAlg);
+        metaDataFields.put("scopes", Collections.singletonList("openid"));
+        metaDataFields.put("grants", Collections.singletonList("authorization_code"));
+        Map<String, Object> data = new HashMap<>();
+        data.put("entityid", "http://mock-sp");
+        data.put("metaDataFields", metaDataFields);
+        return new OpenIDClient(Collections.singletonMap("data", data));
+    }
+
+    private JWTClaimsSet verifyEdDSASignedJWT(SignedJWT signedJWT) throws ParseException, JOSEException {
+        JWK jwk = JWKSet.parse(given().when().get("oidc/certs").asString()).getKeyByKeyId(signedJWT.getHeader().getKeyID());
+        assertTrue(signedJWT.verify(new Ed25519Verifier(jwk.toOctetKeyPair())));
+        return signedJWT.getJWTClaimsSet();
+    }
+}
@@ -0,0 +1,60 @@
+package oidc.secure;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class SigningKeyPoolTest {
+
+    private AtomicInteger generated = new AtomicInteger();
+
+    @Test
+    public void take() throws InterruptedException {
+        SigningKeyPool subject = pool(2);
+        subject.fill();
+        awaitSize(subject, 2);
+        assertEquals(2, generated.get());
+
+        JWK jwk = subject.take(JWSAlgorithm.RS256);
+        assertNotNull(jwk);
+        awaitSize(subject, 2);
+        assertEquals(3, generated.get());
+    }
+
+    @Test
+    public void takeFromEmptyPool() {
+        JWK jwk = pool(2).take(JWSAlgorithm.RS256);
+        assertNotNull(jwk);
+    }
+
+    @Test
+    public void noPool() {
+        SigningKeyPool subject = pool(0);
+        subject.fill();
+
+        assertNotNull(subject.take(JWSAlgorithm.RS256));
+        assertEquals(0, subject.size(JWSAlgorithm.RS256));
+        assertEquals(1, generated.get());
+    }
+
+    private SigningKeyPool pool(int poolSize) {
+        return new SigningKeyPool(Collections.singletonList(JWSAlgorithm.RS256), algorithm -> {
+            generated.incrementAndGet();
+            return new OctetSequenceKey.Builder(new byte[32]).build();
+        }, poolSize);
+    }
+
+    private void awaitSize(SigningKeyPool subject, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && subject.size(JWSAlgorithm.RS256) < size; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, subject.size(JWSAlgorithm.RS256));
+    }
+}
@@ -0,0 +1,108 @@
+package oidc.secure;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class SnapshotRegistryTest {
+
+    private AtomicReference<String> version = new AtomicReference<>("v1");
+    private AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void getWithinRefreshInterval() {
+        SnapshotRegistry<String> subject = registry(Long.MAX_VALUE);
+
+        assertEquals("v1", subject.get());
+        version.set("v2");
+        assertEquals("v1", subject.get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void getAfterRefreshInterval() {
+        SnapshotRegistry<String> subject = registry(0);
+
+        assertEquals("v1", subject.get());
+        assertEquals("v1", subject.get());
+        assertEquals(1, loads.get());
+
+        version.set("v2");
+        assertEquals("v2", subject.get());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void refreshWithPredicate() {
+        SnapshotRegistry<String> subject = registry(Long.MAX_VALUE);
+        subject.get();
+        version.set("v2");
+
+        assertEquals("v1", subject.refresh(state -> false));
+        assertEquals("v2", subject.refresh(state -> state.equals("v1")));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void reload() {
+        SnapshotRegistry<String> subject = registry(Long.MAX_VALUE);
+        subject.get();
+        subject.reload();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void update() {
+        SnapshotRegistry<String> subject = registry(0);
+        subject.get();
+        version.set("v2");
+
+        assertEquals("v1-updated", subject.update("v2", state -> state + "-updated"));
+        assertEquals("v1-updated", subject.get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void singleFlightReload() throws Exception {
+        SnapshotRegistry<String> subject = registry(Long.MAX_VALUE);
+        subject.get();
+        version.set("v2");
+
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        List<Callable<String>> callables = IntStream.range(0, 100)
+                .mapToObj(i -> (Callable<String>) () -> subject.refresh(state -> state.equals("v1")))
+                .collect(Collectors.toList());
+        List<String> states = executorService.invokeAll(callables).stream().map(this::get).distinct().collect(Collectors.toList());
+        executorService.shutdown();
+
+        assertEquals(1, states.size());
+        assertEquals("v2", states.get(0));
+        assertEquals(2, loads.get());
+    }
+
+    private SnapshotRegistry<String> registry(long refreshIntervalMillis) {
+        return new SnapshotRegistry<>(version::get, () -> {
+            loads.incrementAndGet();
+            return version.get();
+        }, refreshIntervalMillis);
+    }
+
+    private String get(Future<String> future) {
+        try {
+            return future.get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,15 +1,27 @@
 package oidc.secure;
 
 import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.JWEObjectJSON;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MultiDecrypter;
+import com.nimbusds.jose.crypto.RSADecrypter;
 import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
 import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
 import com.nimbusds.jwt.SignedJWT;
 import oidc.AbstractIntegrationTest;
 import oidc.exceptions.InvalidSignatureException;
+import oidc.model.AccessToken;
 import oidc.model.EncryptedTokenValue;
 import oidc.model.OpenIDClient;
 import oidc.model.SigningKey;
 import oidc.model.SymmetricKey;
+import oidc.model.TokenHash;
 import oidc.model.User;
 import oidc.repository.SigningKeyRepository;
 import org.junit.Test;
@@ -17,6 +29,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
@@ -24,11 +37,19 @@ import java.security.NoSuchProviderException;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TokenGeneratorTest extends AbstractIntegrationTest {
 
@@ -50,6 +71,130 @@ public class TokenGeneratorTest extends AbstractIntegrationTest {
         tokenGenerator.decryptAccessTokenWithEmbeddedUserInfo(tamperedJWT.serialize());
     }
 
+    @Test
+    public void unknownSigningKey() throws IOException, ParseException, JOSEException {
+        String accessToken = doEncryptAndDecryptAccessToken();
+
+        SignedJWT signedJWT = SignedJWT.parse(accessToken);
+        JWSHeader header = new JWSHeader.Builder(signedJWT.getHeader()).keyID(UUID.randomUUID().toString()).build();
+        SignedJWT unknownJWT = new SignedJWT(header, signedJWT.getJWTClaimsSet());
+        unknownJWT.sign(new RSASSASigner(new RSAKeyGenerator(RSAKeyGenerator.MIN_KEY_SIZE_BITS).generate()));
+        //the second miss within the interval does not check for a rollover on another node
+        for (int i = 0; i < 2; i++) {
+            try {
+                tokenGenerator.decodeAccessToken(unknownJWT.serialize());
+                fail();
+            } catch (InvalidSignatureException e) {
+                assertFalse(e.getMessage().contains(signedJWT.getHeader().getKeyID()));
+            }
+        }
+    }
+
+    @Test
+    public void decryptAccessTokenCached() throws IOException {
+        String accessToken = doEncryptAndDecryptAccessToken();
+        User user = tokenGenerator.decryptAccessTokenWithEmbeddedUserInfo(accessToken);
+
+        assertSame(user, tokenGenerator.decryptAccessTokenWithEmbeddedUserInfo(accessToken));
+
+        tokenGenerator.evictDecodedAccessToken(TokenHash.sha256(accessToken));
+        User decryptedUser = tokenGenerator.decryptAccessTokenWithEmbeddedUserInfo(accessToken);
+        assertNotSame(user, decryptedUser);
+        assertEquals(user, decryptedUser);
+    }
+
+    @Test
+    public void decodeAccessToken() throws IOException {
+        String accessToken = doEncryptAndDecryptAccessToken();
+        AccessToken decoded = tokenGenerator.decodeAccessToken(accessToken).get();
+
+        assertEquals("mock-sp", decoded.getClientId());
+        assertEquals(Collections.singletonList("openid"), decoded.getScopes());
+        assertArrayEquals(TokenHash.sha256(accessToken), decoded.getId());
+        assertFalse(decoded.isClientCredentials());
+
+        assertFalse(tokenGenerator.decodeAccessToken(UUID.randomUUID().toString()).isPresent());
+    }
+
+    @Test
+    public void resourceServerClaims() throws IOException, JOSEException, ParseException {
+        RSAKey rsaKey = new RSAKeyGenerator(2048).keyID("rs-key").generate();
+        OpenIDClient resourceServer = resourceServer("resource-server-playground-client", rsaKey);
+        ReflectionTestUtils.setField(resourceServer, "includeUnspecifiedNameID", true);
+        ECKey ecKey = new ECKeyGenerator(Curve.P_256).keyID("ec-key").generate();
+        OpenIDClient otherResourceServer = resourceServer("mock-rp", ecKey);
+        User user = new User("sub", "unspecifiedNameId", "http://mockidp", "clientId", getUserInfo(), Collections.emptyList());
+
+        String accessToken = tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, openIDClient("mock-sp"),
+                Collections.singletonList("openid"), Arrays.asList(resourceServer, otherResourceServer)).getValue();
+
+        Map<String, Object> resourceServerClaims = SignedJWT.parse(accessToken).getJWTClaimsSet().getJSONObjectClaim("resource_server_claims");
+        JWEObjectJSON jweObject = JWEObjectJSON.parse(resourceServerClaims);
+        assertEquals(2, jweObject.getRecipients().size());
+        jweObject.decrypt(new MultiDecrypter(rsaKey));
+        Map<String, Object> claims = jweObject.getPayload().toJSONObject();
+        assertEquals("sub", claims.get("sub"));
+        assertEquals("mock-sp", claims.get("client_id"));
+        assertEquals(Arrays.asList("resource-server-playground-client", "mock-rp"), claims.get("aud"));
+        assertFalse(claims.containsKey("unspecified_id"));
+
+        //only the resource server that includes the unspecified name ID can read it
+        JWEObject recipientClaims = JWEObject.parse((String) jweObject.getRecipients().get(0).getUnprotectedHeader().getParam("claims"));
+        recipientClaims.decrypt(new RSADecrypter(rsaKey));
+        assertEquals("unspecifiedNameId", recipientClaims.getPayload().toJSONObject().get("unspecified_id"));
+        assertNull(jweObject.getRecipients().get(1).getUnprotectedHeader().getParam("claims"));
+    }
+
+    @Test
+    public void resourceServerClaimsCapped() throws IOException, JOSEException, ParseException {
+        ReflectionTestUtils.setField(tokenGenerator, "maxEmbeddedResourceServers", 1);
+        try {
+            RSAKey rsaKey = new RSAKeyGenerator(2048).keyID("rs-key").generate();
+            List<OpenIDClient> resourceServers = Arrays.asList(resourceServer("resource-server-playground-client", rsaKey),
+                    resourceServer("mock-rp", new RSAKeyGenerator(2048).generate()));
+            User user = new User("sub", "unspecifiedNameId", "http://mockidp", "clientId", getUserInfo(), Collections.emptyList());
+
+            String accessToken = tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, openIDClient("mock-sp"),
+                    Collections.singletonList("openid"), resourceServers).getValue();
+
+            JWEObjectJSON jweObject = JWEObjectJSON.parse(SignedJWT.parse(accessToken).getJWTClaimsSet()
+                    .getJSONObjectClaim("resource_server_claims"));
+            assertEquals(1, jweObject.getRecipients().size());
+            jweObject.decrypt(new MultiDecrypter(rsaKey));
+            assertEquals(Collections.singletonList("resource-server-playground-client"), jweObject.getPayload().toJSONObject().get("aud"));
+        } finally {
+            ReflectionTestUtils.setField(tokenGenerator, "maxEmbeddedResourceServers", 5);
+        }
+    }
+
+    @Test
+    public void resourceServerClaimsTooLarge() throws IOException, JOSEException, ParseException {
+        User user = new User("sub", "unspecifiedNameId", "http://mockidp", "clientId", getUserInfo(), Collections.emptyList());
+        OpenIDClient client = openIDClient("mock-sp");
+        int maxBytes = tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, client,
+                Collections.singletonList("openid")).getValue().length() + 512;
+        ReflectionTestUtils.setField(tokenGenerator, "maxAccessTokenBytes", maxBytes);
+        try {
+            OpenIDClient resourceServer = resourceServer("resource-server-playground-client", new RSAKeyGenerator(2048).generate());
+
+            String accessToken = tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, client,
+                    Collections.singletonList("openid"), Collections.singletonList(resourceServer)).getValue();
+
+            //the resource server uses the introspect endpoint
+            assertNull(SignedJWT.parse(accessToken).getJWTClaimsSet().getClaim("resource_server_claims"));
+            assertTrue(accessToken.length() <= maxBytes);
+        } finally {
+            ReflectionTestUtils.setField(tokenGenerator, "maxAccessTokenBytes", 12288);
+        }
+    }
+
+    private OpenIDClient resourceServer(String clientId, JWK key) throws IOException {
+        OpenIDClient resourceServer = openIDClient(clientId);
+        ReflectionTestUtils.setField(resourceServer, "resourceServer", true);
+        ReflectionTestUtils.setField(resourceServer, "accessTokenEncryptionKey", key.toPublicJWK().toJSONString());
+        return resourceServer;
+    }
+
     @Test
     public void rolloverSigningKeys() throws NoSuchProviderException, NoSuchAlgorithmException {
         resetAndCreateSigningKeys(3);
@@ -103,7 +248,7 @@ public class TokenGeneratorTest extends AbstractIntegrationTest {
         String clientId = "mock-sp";
         OpenIDClient client = mongoTemplate.find(Query.query(Criteria.where("clientId").is(clientId)), OpenIDClient.class).get(0);
 
-        EncryptedTokenValue encryptedAccessToken = tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, client);
+        EncryptedTokenValue encryptedAccessToken = tokenGenerator.generateAccessTokenWithEmbeddedUserInfo(user, client, Collections.singletonList("openid"));
         String accessToken = encryptedAccessToken.getValue();
         User convertedUser = tokenGenerator.decryptAccessTokenWithEmbeddedUserInfo(accessToken);
 
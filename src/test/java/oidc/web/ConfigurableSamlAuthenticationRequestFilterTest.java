@@ -1,6 +1,7 @@
 package oidc.web;
 
 import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.openid.connect.sdk.claims.ACR;
 import io.restassured.response.Response;
 import io.restassured.response.ResponseBody;
 import io.restassured.specification.RequestSpecification;
@@ -31,6 +32,8 @@ import java.util.stream.Collectors;
 
 import static io.restassured.RestAssured.given;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @ActiveProfiles(profiles = {"prod"}, inheritProfiles = false)
 public class ConfigurableSamlAuthenticationRequestFilterTest extends AbstractIntegrationTest implements SamlTest, SignedJWTTest {
@@ -95,7 +98,7 @@ public class ConfigurableSamlAuthenticationRequestFilterTest extends AbstractInt
 
     private Map doFilterInternal(String clientId, String prompt, String acrValue, String requestSignedJWT,
                                  boolean isForceAuth, String redirectUri, String responseType, String responseMode)
-            throws IOException, ParseException, ParserConfigurationException, SAXException, XPathExpressionException {
+            throws IOException, ParseException, com.nimbusds.oauth2.sdk.ParseException, ParserConfigurationException, SAXException, XPathExpressionException {
         RequestSpecification when = given().redirects().follow(false).when();
         if (StringUtils.hasText(clientId)) {
             when.queryParam("client_id", clientId);
@@ -158,6 +161,14 @@ public class ConfigurableSamlAuthenticationRequestFilterTest extends AbstractInt
             List<AuthenticationContextClassReference> classReferences = authenticationRequest.getAuthenticationContextClassReferences();
             String loas = String.join(" ", classReferences.stream().map(AuthenticationContextClassReference::getValue).collect(Collectors.toList()));
             assertEquals(acrValues, loas);
+
+            oidc.model.AuthenticationRequest savedRequest =
+                    mongoTemplate.findById(authenticationRequest.getId(), oidc.model.AuthenticationRequest.class);
+            assertTrue(savedRequest.isVerifiedRequestFor(requestSignedJWT));
+            com.nimbusds.openid.connect.sdk.AuthenticationRequest verifiedRequest =
+                    com.nimbusds.openid.connect.sdk.AuthenticationRequest.parse(savedRequest.getVerifiedRequest());
+            assertEquals(acrValues, verifiedRequest.getACRValues().stream().map(ACR::getValue).collect(Collectors.joining(" ")));
+            assertFalse(verifiedRequest.specifiesRequestObject());
         }
 
         return Collections.emptyMap();